@@ -22,6 +22,7 @@
 package org.elasticsearch.index.analysis.split;
 
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.analysis.util.StopwordAnalyzerBase;
 import org.apache.lucene.util.Version;
@@ -80,4 +81,14 @@ public final class SplitAnalyzer extends StopwordAnalyzerBase {
             TokenStream result = new SplitTokenFilter(source, stopwords);
             return new TokenStreamComponents(source, result);
     }
+
+    /**
+     * Returns the split tokens of <code>reader</code> without any markup, lower cased so that they
+     * can be matched against query terms. Callers rebuild the markup from the offsets and types.
+     */
+    public TokenStream matchTokenStream(Reader reader) {
+        final SplitTokenizer source = new SplitTokenizer(matchVersion, reader);
+        source.setMaxTokenLength(maxTokenLength);
+        return new LowerCaseFilter(matchVersion, source);
+    }
 }
@@ -90,10 +90,19 @@ public class SplitTokenFilter extends TokenFilter {
         }
 
         StringBuilder result = new StringBuilder(plainText.length());
+        htmlEncode(plainText, 0, plainText.length(), result);
+        return result.toString();
+    }
 
-        for (int index=0; index<plainText.length(); index++)
+    /**
+     * Encode the chars of <code>text</code> between <code>start</code> and <code>end</code> into HTML,
+     * appending them to <code>result</code>
+     */
+    public static void htmlEncode(CharSequence text, int start, int end, StringBuilder result)
+    {
+        for (int index=start; index<end; index++)
         {
-            char ch = plainText.charAt(index);
+            char ch = text.charAt(index);
 
             switch (ch)
             {
@@ -117,7 +126,5 @@ public class SplitTokenFilter extends TokenFilter {
                     result.append(ch);
             }
         }
-
-        return result.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.index.mapper.split;
+
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexableField;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+import org.elasticsearch.index.mapper.*;
+import org.elasticsearch.index.mapper.core.StringFieldMapper;
+import org.elasticsearch.search.highlight.split.SplitTokens;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A <code>split_string</code> field is a <code>string</code> field, accepting the same mapping, that
+ * also stores the split tokens of its values in a binary stored field, so that the split highlighter
+ * reads them instead of tokenizing the values again:
+ * <pre>
+ * "message" : { "type" : "split_string", "store" : "yes" }
+ * </pre>
+ * The tokens are scanned with the <code>max_token_length</code> of the <code>split</code> analyzer of
+ * the index, from the value the <code>string</code> field indexes or stores, so that values given as
+ * an object with a boost and the <code>null_value</code> get their tokens too. A value the field
+ * neither indexes nor stores has no tokens.
+ */
+public class SplitStringFieldMapper implements Mapper {
+
+    public static final String CONTENT_TYPE = "split_string";
+
+    /**
+     * The stored field holding the encoded {@link SplitTokens} of the values of <code>indexName</code>,
+     * one per value.
+     */
+    public static String tokensField(String indexName) {
+        return indexName + "._split_tokens";
+    }
+
+    public static class Builder extends Mapper.Builder<Builder, SplitStringFieldMapper> {
+
+        private final Mapper.Builder contentBuilder;
+
+        private final int maxTokenLength;
+
+        public Builder(String name, Mapper.Builder contentBuilder, int maxTokenLength) {
+            super(name);
+            this.builder = this;
+            this.contentBuilder = contentBuilder;
+            this.maxTokenLength = maxTokenLength;
+        }
+
+        @Override
+        public SplitStringFieldMapper build(BuilderContext context) {
+            return new SplitStringFieldMapper(name, (StringFieldMapper) contentBuilder.build(context), maxTokenLength);
+        }
+    }
+
+    public static class TypeParser implements Mapper.TypeParser {
+
+        @Override
+        public Mapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext) throws MapperParsingException {
+            Mapper.Builder contentBuilder = new StringFieldMapper.TypeParser().parse(name, node, parserContext);
+            int maxTokenLength = SplitAnalyzer.DEFAULT_MAX_TOKEN_LENGTH;
+            NamedAnalyzer splitAnalyzer = parserContext.analysisService().analyzer("split");
+            if (splitAnalyzer != null && splitAnalyzer.analyzer() instanceof SplitAnalyzer) {
+                maxTokenLength = ((SplitAnalyzer) splitAnalyzer.analyzer()).getMaxTokenLength();
+            }
+            return new Builder(name, contentBuilder, maxTokenLength);
+        }
+    }
+
+    private final String name;
+
+    private final StringFieldMapper contentMapper;
+
+    private final int maxTokenLength;
+
+    public SplitStringFieldMapper(String name, StringFieldMapper contentMapper, int maxTokenLength) {
+        this.name = name;
+        this.contentMapper = contentMapper;
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void parse(ParseContext context) throws IOException {
+        List<IndexableField> fields = context.doc().getFields();
+        int numFields = fields.size();
+        contentMapper.parse(context);
+        String indexName = contentMapper.names().indexName();
+        for (int i = numFields; i < fields.size(); i++) {
+            IndexableField field = fields.get(i);
+            if (field.name().equals(indexName) && field.stringValue() != null) {
+                SplitTokens tokens = SplitTokens.scan(field.stringValue(), maxTokenLength);
+                context.doc().add(new StoredField(tokensField(indexName), tokens.encode()));
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void merge(Mapper mergeWith, MergeContext mergeContext) throws MergeMappingException {
+        if (!(mergeWith instanceof SplitStringFieldMapper)) {
+            mergeContext.addConflict("mapper [" + contentMapper.names().fullName() + "] of different type, current_type [" + CONTENT_TYPE
+                    + "], merged_type [" + mergeWith.getClass().getSimpleName() + "]");
+            // different types, return
+            return;
+        }
+        SplitStringFieldMapper splitMergeWith = (SplitStringFieldMapper) mergeWith;
+        if (maxTokenLength != splitMergeWith.maxTokenLength) {
+            // the stored tokens of the documents indexed already would not match the new ones
+            mergeContext.addConflict("mapper [" + contentMapper.names().fullName() + "] has different max_token_length");
+        }
+        contentMapper.merge(splitMergeWith.contentMapper, mergeContext);
+    }
+
+    @Override
+    public void traverse(FieldMapperListener fieldMapperListener) {
+        contentMapper.traverse(fieldMapperListener);
+    }
+
+    @Override
+    public void traverse(ObjectMapperListener objectMapperListener) {
+    }
+
+    @Override
+    public void close() {
+        contentMapper.close();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        // the mapping of the string field, merged updates included, under the split_string type
+        XContentBuilder content = XContentFactory.jsonBuilder().startObject();
+        contentMapper.toXContent(content, params);
+        content.endObject();
+        Map<String, Object> mapping = (Map<String, Object>) XContentHelper.convertToMap(content.bytes(), true).v2().get(name);
+        mapping.put("type", CONTENT_TYPE);
+        builder.field(name, mapping);
+        return builder;
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.plugin.splithighlight;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.search.highlight.split.HighlightExecutor;
+import org.elasticsearch.search.highlight.split.HighlightMetrics;
+import org.elasticsearch.search.highlight.split.HighlightQueryCache;
+import org.elasticsearch.search.highlight.split.HighlightResultCache;
+import org.elasticsearch.search.highlight.split.HighlightSlowLog;
+import org.elasticsearch.search.highlight.split.SplitMarkupCache;
+import org.elasticsearch.search.highlight.split.TokenBoundaryCache;
+
+/**
+ */
+public class SplitHighlightModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(HighlightExecutor.class).asEagerSingleton();
+        bind(HighlightQueryCache.class).asEagerSingleton();
+        bind(HighlightResultCache.class).asEagerSingleton();
+        bind(TokenBoundaryCache.class).asEagerSingleton();
+        bind(SplitMarkupCache.class).asEagerSingleton();
+        bind(HighlightMetrics.class).asEagerSingleton();
+        bind(HighlightSlowLog.class).asEagerSingleton();
+    }
+}
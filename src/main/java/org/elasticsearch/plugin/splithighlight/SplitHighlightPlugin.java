@@ -21,11 +21,21 @@
 
 package org.elasticsearch.plugin.splithighlight;
 
+import org.elasticsearch.common.collect.ImmutableList;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.index.analysis.AnalysisModule;
 import org.elasticsearch.index.analysis.split.SplitAnalysisBinderProcessor;
+import org.elasticsearch.index.mapper.split.SplitMapperModule;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.split.RestSplitHighlightAction;
+import org.elasticsearch.rest.action.split.RestSplitHighlightStatsAction;
 import org.elasticsearch.search.highlight.HighlightModule;
 import org.elasticsearch.search.highlight.SplitHighlighter;
+import org.elasticsearch.search.highlight.split.HighlightExecutor;
+
+import java.util.Collection;
 
 /**
  */
@@ -41,6 +51,21 @@ public class SplitHighlightPlugin extends AbstractPlugin {
         return "highlight and split function";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        return ImmutableList.<Class<? extends Module>>of(SplitHighlightModule.class);
+    }
+
+    @Override
+    public Collection<Class<? extends Module>> indexModules() {
+        return ImmutableList.<Class<? extends Module>>of(SplitMapperModule.class);
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        return ImmutableList.<Class<? extends LifecycleComponent>>of(HighlightExecutor.class);
+    }
+
     public void onModule(AnalysisModule module) {
         module.addProcessor(new SplitAnalysisBinderProcessor());
     }
@@ -49,4 +74,9 @@ public class SplitHighlightPlugin extends AbstractPlugin {
         module.registerHighlighter(SplitHighlighter.class);
     }
 
+    public void onModule(RestModule module) {
+        module.addRestAction(RestSplitHighlightAction.class);
+        module.addRestAction(RestSplitHighlightStatsAction.class);
+    }
+
 }
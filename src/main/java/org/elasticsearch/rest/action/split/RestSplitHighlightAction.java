@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.rest.action.split;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.highlight.HighlightField;
+import org.elasticsearch.search.highlight.SplitHighlighter;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Highlights a given list of documents, so that a search can skip highlighting and the highlights of
+ * the hits actually shown be fetched afterwards:
+ * <pre>
+ * curl -XPOST 'localhost:9200/logs/_split_highlight' -d '{
+ *     "ids" : ["1", "7"],
+ *     "query" : { "term" : { "message" : "reset" } },
+ *     "highlight" : { "fields" : { "message" : {} } }
+ * }'
+ * </pre>
+ * The documents are searched with the query and only those are loaded and highlighted, with the
+ * <code>split</code> highlighter unless the highlight options choose another type. The highlights are
+ * returned in the order of the ids, documents that do not match the query being left out. Documents of
+ * several types sharing an id are all returned when the types are given in the path, one per id being
+ * returned otherwise. The fields
+ * that only got their leading text, the highlighting budget being spent, are listed as
+ * <code>degraded</code>.
+ */
+public class RestSplitHighlightAction extends BaseRestHandler {
+
+    @Inject
+    public RestSplitHighlightAction(Settings settings, Client client, RestController controller) {
+        super(settings, client);
+        controller.registerHandler(GET, "/{index}/_split_highlight", this);
+        controller.registerHandler(POST, "/{index}/_split_highlight", this);
+        controller.registerHandler(GET, "/{index}/{type}/_split_highlight", this);
+        controller.registerHandler(POST, "/{index}/{type}/_split_highlight", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        final List<String> ids;
+        SearchRequest searchRequest;
+        try {
+            Map<String, Object> body = request.hasContent() ? XContentHelper.convertToMap(request.content(), false).v2() : new HashMap<String, Object>();
+            ids = ids(body);
+            searchRequest = searchRequest(request, body, ids);
+        } catch (Exception e) {
+            try {
+                channel.sendResponse(new XContentThrowableRestResponse(request, e));
+            } catch (IOException e1) {
+                logger.error("Failed to send failure response", e1);
+            }
+            return;
+        }
+
+        client.search(searchRequest, new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse response) {
+                try {
+                    XContentBuilder builder = restContentBuilder(request);
+                    builder.startObject();
+                    builder.field("took", response.getTookInMillis());
+                    builder.startArray("docs");
+                    for (SearchHit hit : inIdsOrder(response.getHits().hits(), ids)) {
+                        toXContent(hit, builder);
+                    }
+                    builder.endArray();
+                    builder.endObject();
+                    channel.sendResponse(new XContentRestResponse(request, OK, builder));
+                } catch (Exception e) {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                try {
+                    channel.sendResponse(new XContentThrowableRestResponse(request, e));
+                } catch (IOException e1) {
+                    logger.error("Failed to send failure response", e1);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> ids(Map<String, Object> body) {
+        Object ids = body.get("ids");
+        if (!(ids instanceof List) || ((List) ids).isEmpty()) {
+            throw new ElasticSearchIllegalArgumentException("[_split_highlight] requires a non empty [ids] array");
+        }
+        List<String> list = new ArrayList<String>(((List) ids).size());
+        for (Object id : (List<Object>) ids) {
+            list.add(id.toString());
+        }
+        return list;
+    }
+
+    /**
+     * Sorts the hits in the order of their ids, documents of several types sharing an id each being
+     * kept, in the order of the search.
+     */
+    private static List<SearchHit> inIdsOrder(SearchHit[] hits, List<String> ids) {
+        final Map<String, Integer> positions = new HashMap<String, Integer>();
+        for (int i = ids.size() - 1; i >= 0; i--) {
+            positions.put(ids.get(i), i);
+        }
+        List<SearchHit> sorted = new ArrayList<SearchHit>(Arrays.asList(hits));
+        // stable, so that hits of the same id stay in the order of the search
+        Collections.sort(sorted, new Comparator<SearchHit>() {
+            @Override
+            public int compare(SearchHit o1, SearchHit o2) {
+                return positions.get(o1.getId()) - positions.get(o2.getId());
+            }
+        });
+        return sorted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SearchRequest searchRequest(RestRequest request, Map<String, Object> body, List<String> ids) throws IOException {
+        if (!(body.get("highlight") instanceof Map)) {
+            throw new ElasticSearchIllegalArgumentException("[_split_highlight] requires [highlight] options");
+        }
+        Map<String, Object> highlight = new HashMap<String, Object>((Map<String, Object>) body.get("highlight"));
+        if (!highlight.containsKey("type") && !highlight.containsKey("highlighter_type")) {
+            highlight.put("type", "split");
+        }
+
+        XContentBuilder source = XContentFactory.jsonBuilder().startObject();
+        // the highlighter unwraps the filtered query, seeing the query of the request
+        source.startObject("query").startObject("filtered");
+        if (body.get("query") != null) {
+            source.field("query", body.get("query"));
+        } else {
+            source.startObject("query").startObject("match_all").endObject().endObject();
+        }
+        source.startObject("filter").startObject("ids").field("values", ids).endObject().endObject();
+        source.endObject().endObject();
+        // each of the types may have a document of the id
+        String[] types = RestActions.splitTypes(request.param("type"));
+        source.field("size", ids.size() * Math.max(1, types.length));
+        source.startArray("fields").endArray();
+        source.field("highlight", highlight);
+        source.endObject();
+
+        SearchRequest searchRequest = new SearchRequest(RestActions.splitIndices(request.param("index")));
+        searchRequest.types(types);
+        searchRequest.searchType(SearchType.QUERY_THEN_FETCH);
+        searchRequest.routing(request.param("routing"));
+        searchRequest.preference(request.param("preference"));
+        searchRequest.source(source);
+        searchRequest.listenerThreaded(false);
+        return searchRequest;
+    }
+
+    private static void toXContent(SearchHit hit, XContentBuilder builder) throws IOException {
+        builder.startObject();
+        builder.field("_index", hit.getIndex());
+        builder.field("_type", hit.getType());
+        builder.field("_id", hit.getId());
+        builder.startObject("highlight");
+        for (HighlightField field : hit.getHighlightFields().values()) {
+            builder.field(field.name());
+            if (field.fragments() == null) {
+                builder.nullValue();
+            } else {
+                builder.startArray();
+                for (Text fragment : field.fragments()) {
+                    builder.value(fragment);
+                }
+                builder.endArray();
+            }
+        }
+        builder.endObject();
+        SearchHitField degraded = hit.field(SplitHighlighter.DEGRADED_FIELD);
+        if (degraded != null) {
+            builder.field("degraded", degraded.getValues());
+        }
+        builder.endObject();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.rest.action.split;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.search.highlight.split.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Returns the highlighting stats of the node that receives the request: the executor and cache
+ * counters, and the per index and field {@link HighlightMetrics}, optionally for a single index:
+ * <pre>
+ * curl -XGET 'localhost:9200/_split_highlight/stats/logs?pretty'
+ * </pre>
+ */
+public class RestSplitHighlightStatsAction extends BaseRestHandler {
+
+    private final HighlightMetrics metrics;
+
+    private final HighlightExecutor executor;
+
+    private final HighlightResultCache resultCache;
+
+    private final TokenBoundaryCache tokenCache;
+
+    private final SplitMarkupCache markupCache;
+
+    @Inject
+    public RestSplitHighlightStatsAction(Settings settings, Client client, RestController controller, HighlightMetrics metrics,
+                                         HighlightExecutor executor, HighlightResultCache resultCache, TokenBoundaryCache tokenCache,
+                                         SplitMarkupCache markupCache) {
+        super(settings, client);
+        this.metrics = metrics;
+        this.executor = executor;
+        this.resultCache = resultCache;
+        this.tokenCache = tokenCache;
+        this.markupCache = markupCache;
+        controller.registerHandler(GET, "/_split_highlight/stats", this);
+        controller.registerHandler(GET, "/_split_highlight/stats/{index}", this);
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel) {
+        String index = request.param("index");
+        try {
+            XContentBuilder builder = restContentBuilder(request);
+            builder.startObject();
+
+            builder.startObject("executor");
+            builder.field("size", executor.size());
+            builder.field("queue_size", executor.queueSize());
+            builder.field("active", executor.active());
+            builder.field("queued", executor.queued());
+            builder.field("rejected", executor.rejected());
+            builder.endObject();
+
+            builder.startObject("result_cache");
+            builder.field("size", resultCache.size());
+            builder.field("hits", resultCache.hits());
+            builder.field("misses", resultCache.misses());
+            builder.endObject();
+
+            builder.startObject("token_cache");
+            builder.field("size", tokenCache.size());
+            builder.field("hits", tokenCache.hits());
+            builder.field("misses", tokenCache.misses());
+            builder.endObject();
+
+            builder.startObject("markup_cache");
+            builder.field("size", markupCache.size());
+            builder.endObject();
+
+            builder.startObject("indices");
+            for (Map.Entry<String, ? extends Map<String, HighlightMetrics.FieldMetrics>> indexEntry : metrics.indices().entrySet()) {
+                if (index != null && !index.equals(indexEntry.getKey())) {
+                    continue;
+                }
+                builder.startObject(indexEntry.getKey());
+                if (markupCache.enabled()) {
+                    SplitMarkupCache.Stats markupStats = markupCache.stats(indexEntry.getKey());
+                    builder.startObject("markup_cache");
+                    builder.field("hits", markupStats.hits());
+                    builder.field("misses", markupStats.misses());
+                    builder.field("hit_rate", markupStats.hitRate());
+                    builder.endObject();
+                }
+                builder.startObject("fields");
+                for (Map.Entry<String, HighlightMetrics.FieldMetrics> fieldEntry : indexEntry.getValue().entrySet()) {
+                    builder.field(fieldEntry.getKey());
+                    fieldEntry.getValue().toXContent(builder, request);
+                }
+                builder.endObject();
+                builder.endObject();
+            }
+            builder.endObject();
+
+            builder.endObject();
+            channel.sendResponse(new XContentRestResponse(request, OK, builder));
+        } catch (Exception e) {
+            try {
+                channel.sendResponse(new XContentThrowableRestResponse(request, e));
+            } catch (IOException e1) {
+                logger.error("Failed to send failure response", e1);
+            }
+        }
+    }
+}
@@ -5,27 +5,48 @@ import com.google.common.collect.Maps;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.highlight.*;
 import org.apache.lucene.search.highlight.Formatter;
+import org.apache.lucene.search.highlight.Scorer;
 import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.common.base.Joiner;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.FastStringReader;
 import org.elasticsearch.common.lucene.search.XFilteredQuery;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
 import org.elasticsearch.index.fieldvisitor.CustomFieldsVisitor;
+import org.elasticsearch.index.fieldvisitor.JustSourceFieldsVisitor;
+import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.split.SplitStringFieldMapper;
 import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.search.SearchHitField;
 import org.elasticsearch.search.fetch.FetchPhaseExecutionException;
 import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.search.highlight.split.*;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHitField;
 import org.elasticsearch.search.internal.SearchContext;
-import org.elasticsearch.search.lookup.SearchLookup;
 
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * User: Dong ai hua
@@ -37,17 +58,224 @@ public class SplitHighlighter implements Highlighter {
 
     private static final String CACHE_KEY = "highlight-split";
 
+    private static final String FUSED_CACHE_KEY = "highlight-split-fused";
+
+    private static final String STORED_CACHE_KEY = "highlight-split-stored";
+
+    private static final String SOURCE_CACHE_KEY = "highlight-split-source";
+
+    private static final String PARALLEL_CACHE_KEY = "highlight-split-parallel";
+
+    private static final String BUDGET_CACHE_KEY = "highlight-split-budget";
+
+    private static final String ADMISSIONS_CACHE_KEY = "highlight-split-admissions";
+
+    private static final String SHARED_TOKENS_CACHE_KEY = "highlight-split-shared-tokens";
+
+    private static final String SHARED_PATHS_CACHE_KEY = "highlight-split-shared-paths-";
+
+    /**
+     * The hit field listing the highlighted fields of a hit that got their leading text only, the
+     * highlighting budget of the request being spent.
+     */
+    public static final String DEGRADED_FIELD = "_split_highlight_degraded";
+
+    /**
+     * The hit field holding the trace of each highlighted field of a hit, when the request asks for
+     * it with the <code>profile</code> option.
+     */
+    public static final String PROFILE_FIELD = "_split_highlight_profile";
+
+    private static final OffsetSource TERM_VECTOR_OFFSETS = new TermVectorOffsets();
+
+    private static final OffsetSource POSTINGS_OFFSETS = new PostingsOffsets();
+
+    /**
+     * The text analyzers are probed with to tell whether they index the split match tokens.
+     */
+    static final String PROBE_TEXT = "刘德华 dong ai hua just the NGram xsflsy02.sa.nhnsystem.com <123>456 Highlights";
+
+    private final HighlightQueryCache queryCache;
+
+    // whether the index analyzers index the split match tokens, see fusedAnalyzer
+    private final Cache<Analyzer, Boolean> splitMatching = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final int maxAnalyzedChars;
+
+    private final long budgetMaxAnalyzedChars;
+
+    private final TimeValue budgetTimeout;
+
+    private final int budgetMaxHits;
+
+    private final HighlightExecutor executor;
+
+    private final HighlightResultCache resultCache;
+
+    private final TokenBoundaryCache tokenCache;
+
+    private final SplitMarkupCache markupCache;
+
+    private final HighlightMetrics metrics;
+
+    private final HighlightSlowLog slowLog;
+
+    @Inject
+    public SplitHighlighter(Settings settings, HighlightQueryCache queryCache, HighlightExecutor executor, HighlightResultCache resultCache,
+                            TokenBoundaryCache tokenCache, SplitMarkupCache markupCache, HighlightMetrics metrics, HighlightSlowLog slowLog) {
+        this.queryCache = queryCache;
+        this.executor = executor;
+        this.resultCache = resultCache;
+        this.tokenCache = tokenCache;
+        this.markupCache = markupCache;
+        this.metrics = metrics;
+        this.slowLog = slowLog;
+        this.maxAnalyzedChars = settings.getAsInt("split_highlight.max_analyzed_chars", 0);
+        this.budgetMaxAnalyzedChars = settings.getAsLong("split_highlight.budget.max_analyzed_chars", 0l);
+        this.budgetTimeout = settings.getAsTime("split_highlight.budget.timeout", TimeValue.timeValueMillis(0));
+        this.budgetMaxHits = settings.getAsInt("split_highlight.budget.max_hits", 0);
+    }
+
     @Override
     public String[] names() {
         return new String[] { "split", "split-highlighter" };
     }
 
     public HighlightField highlight(HighlighterContext highlighterContext) {
+        HighlightField highlightField;
+        try {
+            highlightField = highlightTraced(highlighterContext);
+        } catch (RuntimeException e) {
+            // the fetch phase fails
+            HighlightRequestCache.release(highlighterContext.context);
+            throw e;
+        }
+        if (lastHighlight(highlighterContext)) {
+            HighlightRequestCache.release(highlighterContext.context);
+        }
+        return highlightField;
+    }
+
+    /**
+     * Whether the highlight phase is done with the split highlighter once it highlighted the field:
+     * the hit is the last one of the round and the field the last one of its type the request asks
+     * the split highlighter for, like the highlight phase resolves them.
+     */
+    private boolean lastHighlight(HighlighterContext highlighterContext) {
+        SearchContext context = highlighterContext.context;
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        int last = context.docIdsToLoadFrom() + context.docIdsToLoadSize() - 1;
+        if (last < 0 || context.docIdsToLoad()[last] != hitContext.readerContext().docBase + hitContext.docId()) {
+            return false;
+        }
+        DocumentMapper documentMapper = context.mapperService().documentMapper(hitContext.hit().type());
+        List<String> highlighterNames = Arrays.asList(names());
+        String lastField = null;
+        for (SearchContextHighlight.Field field : context.highlight().fields()) {
+            if (!highlighterNames.contains(field.highlighterType())) {
+                continue;
+            }
+            Set<String> fieldNames;
+            if (Regex.isSimpleMatchPattern(field.field())) {
+                fieldNames = documentMapper.mappers().simpleMatchToFullName(field.field());
+            } else {
+                fieldNames = ImmutableSet.of(field.field());
+            }
+            for (String fieldName : fieldNames) {
+                if (documentMapper.mappers().smartNameFieldMapper(fieldName) != null) {
+                    lastField = fieldName;
+                }
+            }
+        }
+        return highlighterContext.fieldName.equals(lastField);
+    }
+
+    private HighlightField highlightTraced(HighlighterContext highlighterContext) {
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        HighlightTrace trace = new HighlightTrace();
+        HighlightField highlightField;
+        if (!resultCache.cacheable(hitContext.reader())) {
+            highlightField = degraded(highlighterContext, doHighlight(highlighterContext, trace));
+        } else {
+            HighlightResultCache.Key key = resultKey(highlighterContext);
+            highlightField = resultCache.get(key);
+            if (highlightField != null) {
+                trace.path("result_cache");
+            } else {
+                highlightField = degraded(highlighterContext, doHighlight(highlighterContext, trace));
+                if (highlightField != null && !(highlightField instanceof DegradedHighlightField)) {
+                    resultCache.put(hitContext.reader(), key, highlightField);
+                }
+            }
+        }
+        if (trace.traced()) {
+            metrics.record(highlighterContext.context.shardTarget().index(), highlighterContext.fieldName, trace);
+            slowLog.log(highlighterContext.context, hitContext.readerContext().docBase + hitContext.docId(), highlighterContext.fieldName, trace);
+        }
+        if (profile(highlighterContext.field)) {
+            hitField(highlighterContext.hitContext, PROFILE_FIELD).values().add(trace.toMap(highlighterContext.fieldName));
+        }
+        return highlightField;
+    }
+
+    /**
+     * Whether the request asks for the trace of the field with <code>"profile": true</code>.
+     */
+    private boolean profile(SearchContextHighlight.Field field) {
+        return field.options() != null && field.options().get("profile") != null && "true".equals(field.options().get("profile").toString());
+    }
+
+    /**
+     * Returns the field <code>name</code> of the hit, adding it when it is not there yet.
+     */
+    private static SearchHitField hitField(FetchSubPhase.HitContext hitContext, String name) {
+        InternalSearchHit hit = hitContext.hit();
+        Map<String, SearchHitField> fields = hit.fieldsOrNull();
+        if (fields == null) {
+            fields = new HashMap<String, SearchHitField>(2);
+            hit.fields(fields);
+        }
+        SearchHitField hitField = fields.get(name);
+        if (hitField == null) {
+            hitField = new InternalSearchHitField(name, new ArrayList<Object>(2));
+            fields.put(name, hitField);
+        }
+        return hitField;
+    }
+
+    /**
+     * Lists the field in the {@link #DEGRADED_FIELD} of the hit when it only got its leading text.
+     */
+    private HighlightField degraded(HighlighterContext highlighterContext, HighlightField highlightField) {
+        if (highlightField instanceof DegradedHighlightField) {
+            hitField(highlighterContext.hitContext, DEGRADED_FIELD).values().add(highlighterContext.fieldName);
+        }
+        return highlightField;
+    }
+
+    private HighlightField doHighlight(HighlighterContext highlighterContext, HighlightTrace trace) {
         SearchContextHighlight.Field field = highlighterContext.field;
         SearchContext context = highlighterContext.context;
         FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
         FieldMapper<?> mapper = highlighterContext.mapper;
 
+        if (!mayMatch(highlighterContext)) {
+            trace.path("no_match");
+            return null;
+        }
+
+        SplitAnalyzer splitAnalyzer = fusedAnalyzer(context, field, mapper);
+        if (splitAnalyzer != null) {
+            if (executor.enabled() && context.docIdsToLoadSize() > 1) {
+                return highlightParallel(highlighterContext, splitAnalyzer, trace);
+            }
+            return highlightFused(highlighterContext, splitAnalyzer, trace);
+        }
+        if (spans(field)) {
+            // the plain engine only writes the markup of the lucene highlighter
+            throw new ElasticSearchIllegalArgumentException("output [spans] needs the split engine, not available for the field [" + highlighterContext.fieldName + "]");
+        }
+
         Encoder encoder = Encoders.DEFAULT;
 
         if (!hitContext.cache().containsKey(CACHE_KEY)) {
@@ -63,52 +291,34 @@ public class SplitHighlighter implements Highlighter {
             Query query = context.parsedQuery().query();
 
             //Start of Jackie
-            Query newQuery = rewrite(context, query, field, mapper);
+            Query newQuery = highlightQuery(context, query, field, mapper).query();
             QueryScorer queryScorer = new CustomQueryScorer(newQuery, field.requireFieldMatch() ? mapper.names().indexName() : null);
             //End of Jackie
 
             queryScorer.setExpandMultiTermQuery(true);
-            Fragmenter fragmenter;
-            if (field.numberOfFragments() == 0) {
-                fragmenter = new NullFragmenter();
-            } else if (field.fragmenter() == null) {
-                fragmenter = new SimpleSpanFragmenter(queryScorer, field.fragmentCharSize());
-            } else if ("simple".equals(field.fragmenter())) {
-                fragmenter = new SimpleFragmenter(field.fragmentCharSize());
-            } else if ("span".equals(field.fragmenter())) {
-                fragmenter = new SimpleSpanFragmenter(queryScorer, field.fragmentCharSize());
-            } else {
-                throw new ElasticSearchIllegalArgumentException("unknown fragmenter option [" + field.fragmenter() + "] for the field [" + highlighterContext.fieldName + "]");
-            }
+            Fragmenter fragmenter = fragmenter(field, queryScorer, highlighterContext.fieldName);
             Formatter formatter = new SimpleHTMLFormatter(field.preTags()[0], field.postTags()[0]);
 
             entry = new org.apache.lucene.search.highlight.Highlighter(formatter, encoder, queryScorer);
             entry.setTextFragmenter(fragmenter);
-            // always highlight across all data
-            entry.setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
+            int maxDocChars = maxAnalyzedChars(field);
+            entry.setMaxDocCharsToAnalyze(maxDocChars > 0 ? maxDocChars : Integer.MAX_VALUE);
 
             cache.put(mapper, entry);
         }
 
-        List<Object> textsToHighlight;
-        if (mapper.fieldType().stored()) {
-            try {
-                CustomFieldsVisitor fieldVisitor = new CustomFieldsVisitor(ImmutableSet.of(mapper.names().indexName()), false);
-                hitContext.reader().document(hitContext.docId(), fieldVisitor);
-                textsToHighlight = fieldVisitor.fields().get(mapper.names().indexName());
-            } catch (Exception e) {
-                throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e);
-            }
-        } else {
-            SearchLookup lookup = context.lookup();
-            lookup.setNextReader(hitContext.readerContext());
-            lookup.setNextDocId(hitContext.docId());
-            textsToHighlight = lookup.source().extractRawValues(mapper.names().sourcePath());
+        List<Object> textsToHighlight = loadTexts(highlighterContext, trace);
+        if (!admit(highlighterContext, textsToHighlight)) {
+            return leadingText(field, highlighterContext.fieldName, textsToHighlight, trace);
         }
+        trace.values(textsToHighlight);
+        trace.path("plain");
+        trace.scorer("query");
 
         // a HACK to make highlighter do highlighting, even though its using the single frag list builder
         int numberOfFragments = field.numberOfFragments() == 0 ? 1 : field.numberOfFragments();
         ArrayList<TextFragment> fragsList = new ArrayList<TextFragment>();
+        long startNanos = System.nanoTime();
         try {
             for (Object textToHighlight : textsToHighlight) {
                 String text = textToHighlight.toString();
@@ -128,6 +338,8 @@ public class SplitHighlighter implements Highlighter {
         } catch (Exception e) {
             throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e);
         }
+        // analysis and scoring are interleaved by the lucene highlighter
+        trace.add(HighlightTrace.Phase.SCORING, startNanos);
         if (field.scoreOrdered()) {
             Collections.sort(fragsList, new Comparator<TextFragment>() {
                 public int compare(TextFragment o1, TextFragment o2) {
@@ -146,6 +358,7 @@ public class SplitHighlighter implements Highlighter {
             // refine numberOfFragments if needed
             numberOfFragments = fragsList.size() < numberOfFragments ? fragsList.size() : numberOfFragments;
             fragments = new String[numberOfFragments];
+            startNanos = System.nanoTime();
             for (int i = 0; i < fragments.length; i++) {
                 //Start of Jackie
                 fragments[i] = fragsList.get(i).toString();
@@ -156,20 +369,938 @@ public class SplitHighlighter implements Highlighter {
                 }
                 //End of Jackie
             }
+            trace.add(HighlightTrace.Phase.MARKUP, startNanos);
         }
 
         if (fragments != null && fragments.length > 0) {
-            return new HighlightField(highlighterContext.fieldName, StringText.convertFromStringArray(fragments));
+            startNanos = System.nanoTime();
+            HighlightField highlightField = new HighlightField(highlighterContext.fieldName, StringText.convertFromStringArray(fragments));
+            trace.add(HighlightTrace.Phase.SERIALIZATION, startNanos);
+            return highlightField;
         }
 
         return null;
     }
 
+    /**
+     * Highlights the field with {@link SplitFragmentHighlighter}, which scores the split tokens and writes
+     * their markup in the same pass instead of splitting the highlighted fragments afterwards. When the
+     * field indexes offsets, in its term vectors or its postings, and the query is made of terms only,
+     * the matches are read from there and {@link OffsetSplitHighlighter} only scans the fragments it picks.
+     * Otherwise the values of a term query are first scanned by its {@link AhoCorasick} automaton and
+     * only the text around the occurrences of its terms is analyzed.
+     */
+    private HighlightField highlightFused(HighlighterContext highlighterContext, SplitAnalyzer splitAnalyzer, HighlightTrace trace) {
+        SearchContextHighlight.Field field = highlighterContext.field;
+        SearchContext context = highlighterContext.context;
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        FieldMapper<?> mapper = highlighterContext.mapper;
+
+        if (!hitContext.cache().containsKey(FUSED_CACHE_KEY)) {
+            Map<FieldMapper, SplitEntry> mappers = Maps.newHashMap();
+            hitContext.cache().put(FUSED_CACHE_KEY, mappers);
+        }
+        Map<FieldMapper, SplitEntry> cache = (Map<FieldMapper, SplitEntry>) hitContext.cache().get(FUSED_CACHE_KEY);
+
+        SplitEntry entry = cache.get(mapper);
+        if (entry == null) {
+            entry = newSplitEntry(context, field, mapper, highlighterContext.fieldName, splitAnalyzer);
+            cache.put(mapper, entry);
+        }
+
+        List<Object> textsToHighlight = loadTexts(highlighterContext, trace);
+        if (!admit(highlighterContext, textsToHighlight)) {
+            return leadingText(field, highlighterContext.fieldName, textsToHighlight, trace);
+        }
+        try {
+            int offsetGap = context.mapperService().documentMapper(hitContext.hit().type()).mappers().indexAnalyzer().getOffsetGap(mapper.names().indexName());
+            return highlightFused(entry, field, highlighterContext.fieldName, mapper, hitContext.reader(), hitContext.docId(), textsToHighlight, offsetGap,
+                    sharedTokens(highlighterContext), trace);
+        } catch (Exception e) {
+            throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e);
+        }
+    }
+
+    private SplitEntry newSplitEntry(SearchContext context, SearchContextHighlight.Field field, FieldMapper<?> mapper,
+                                     String highlightFieldName, SplitAnalyzer splitAnalyzer) {
+        Query query = context.parsedQuery().query();
+        HighlightQuery highlightQuery = highlightQuery(context, query, field, mapper);
+        String fieldName = field.requireFieldMatch() ? mapper.names().indexName() : null;
+        Scorer scorer;
+        Fragmenter fragmenter;
+        String scorerName;
+        if (highlightQuery.terms() != null && field.options() != null && "terms".equals(field.options().get("scorer"))) {
+            // match counts of the terms, without any weighting
+            scorer = new TermSetScorer(highlightQuery.termSet());
+            fragmenter = fragmenter(field, null, highlightFieldName);
+            scorerName = "terms";
+        } else if (highlightQuery.weightedSpanTerms() != null) {
+            // nothing to extract per document for plain terms
+            QueryScorer queryScorer = new QueryScorer(highlightQuery.weightedSpanTerms());
+            scorer = queryScorer;
+            fragmenter = fragmenter(field, queryScorer, highlightFieldName);
+            scorerName = "weighted_terms";
+        } else if (highlightQuery.automata() != null) {
+            // multi term queries are matched by their automata instead of being expanded per document
+            scorer = new AutomatonScorer(highlightQuery.automata());
+            fragmenter = fragmenter(field, null, highlightFieldName);
+            scorerName = "automaton";
+        } else if (highlightQuery.phrases() != null) {
+            // phrases are matched on the token positions instead of a per document memory index
+            scorer = new PhraseScorer(highlightQuery.phrases());
+            fragmenter = fragmenter(field, null, highlightFieldName);
+            scorerName = "phrase";
+        } else {
+            QueryScorer queryScorer = new CustomQueryScorer(highlightQuery.query(), fieldName);
+            queryScorer.setExpandMultiTermQuery(true);
+            scorer = queryScorer;
+            fragmenter = fragmenter(field, queryScorer, highlightFieldName);
+            scorerName = "query";
+        }
+        SplitMarkup markup = new SplitMarkup(field.preTags()[0], field.postTags()[0], splitAnalyzer, spans(field));
+        if (markupCache.enabled()) {
+            markup.setMemo(markupCache, context.shardTarget().index());
+        }
+        SplitEntry entry = new SplitEntry();
+        entry.maxTokenLength = splitAnalyzer.getMaxTokenLength();
+        entry.markup = markup;
+        entry.scorer = scorerName;
+        entry.fused = new SplitFragmentHighlighter(scorer, fragmenter, markup, splitAnalyzer);
+        entry.fused.setMaxAnalyzedChars(maxAnalyzedChars(field));
+        OffsetSource offsetSource = offsetSource(field, mapper);
+        // the offsets give fixed windows, a fragmenter the request asks for needs the analysis
+        if (offsetSource != null && field.fragmenter() == null) {
+            // positional and multi term queries still need the analysis
+            HighlightTerms terms = highlightQuery.terms();
+            if (terms != null) {
+                int fragmentSize = field.numberOfFragments() == 0 ? 0 : field.fragmentCharSize();
+                entry.offsets = new OffsetSplitHighlighter(terms, markup, fragmentSize);
+                entry.offsetSource = offsetSource;
+                entry.terms = terms;
+            }
+        }
+        if (prefilter(field)) {
+            entry.prefilter = highlightQuery.prefilter();
+            entry.margin = field.numberOfFragments() == 0 ? 0 : field.fragmentCharSize();
+        }
+        return entry;
+    }
+
+    /**
+     * Highlights the values of <code>docId</code> with <code>entry</code>, which is not thread safe.
+     */
+    private HighlightField highlightFused(SplitEntry entry, SearchContextHighlight.Field field, String highlightFieldName, FieldMapper<?> mapper,
+                                          AtomicReader reader, int docId, List<Object> textsToHighlight, int offsetGap,
+                                          SharedSplitTokens sharedTokens, HighlightTrace trace) throws IOException {
+        trace.values(textsToHighlight);
+        entry.markup.setTrace(trace);
+        try {
+            OffsetMatches matches = null;
+            if (entry.offsets != null) {
+                long startNanos = System.nanoTime();
+                entry.matches.clear();
+                if (entry.offsetSource.load(reader, docId, mapper.names().indexName(), entry.terms, entry.matches)) {
+                    matches = entry.matches;
+                    trace.path(entry.offsetSource == TERM_VECTOR_OFFSETS ? "term_vector_offsets" : "postings_offsets");
+                }
+                trace.add(HighlightTrace.Phase.SCORING, startNanos);
+            }
+
+            if (matches == null) {
+                trace.scorer(entry.scorer);
+                trace.path(entry.prefilter != null ? "prefilter" : "analysis");
+            }
+
+            SplitTokens[] tokens = null;
+            if (matches == null) {
+                if (sharedTokens != null) {
+                    tokens = sharedTokens.get(reader.getCoreCacheKey(), docId, entry.maxTokenLength, textsToHighlight);
+                }
+                if (tokens != null) {
+                    // another field of the hit analyzed the same values
+                    trace.path("shared_tokens");
+                } else {
+                    long startNanos = System.nanoTime();
+                    tokens = StoredSplitTokens.load(reader, docId, SplitStringFieldMapper.tokensField(mapper.names().indexName()));
+                    if (tokens != null && !matches(tokens, textsToHighlight)) {
+                        // values not given as strings at index time
+                        tokens = null;
+                    }
+                    trace.add(HighlightTrace.Phase.LOAD_STORED, startNanos);
+                    // with the prefilter, the stored tokens around the candidates are replayed, or else
+                    // only the text around them is analyzed
+                    if (tokens != null) {
+                        trace.path("stored_tokens");
+                    } else if (entry.prefilter == null && tokenCache.cacheable(reader)) {
+                        startNanos = System.nanoTime();
+                        tokens = splitTokens(entry, reader, docId, mapper, textsToHighlight);
+                        trace.add(HighlightTrace.Phase.ANALYSIS, startNanos);
+                        trace.path("cached_tokens");
+                    } else if (entry.prefilter == null && sharedTokens != null) {
+                        // scanned apart from the scoring so that the other fields can reuse the tokens
+                        startNanos = System.nanoTime();
+                        tokens = scanTokens(entry, textsToHighlight);
+                        trace.add(HighlightTrace.Phase.ANALYSIS, startNanos);
+                    }
+                    if (tokens != null && sharedTokens != null) {
+                        sharedTokens.put(reader.getCoreCacheKey(), docId, entry.maxTokenLength, textsToHighlight, tokens);
+                    }
+                }
+            }
+
+            int numberOfFragments = field.numberOfFragments() == 0 ? 1 : field.numberOfFragments();
+            ArrayList<SplitFragment> fragsList = new ArrayList<SplitFragment>();
+            // offsets of the values follow each other in the term vector and in the postings
+            int offset = 0;
+            for (int i = 0; i < textsToHighlight.size(); i++) {
+                String text = textsToHighlight.get(i).toString();
+                SplitFragment[] bestFragments;
+                long startNanos = System.nanoTime();
+                if (matches != null) {
+                    // only the picked fragments are scanned, to place the markup
+                    bestFragments = entry.offsets.getBestFragments(text, offset, matches, numberOfFragments);
+                    trace.add(HighlightTrace.Phase.MARKUP, startNanos);
+                } else if (entry.prefilter != null) {
+                    entry.candidates.clear();
+                    entry.prefilter.match(text, entry.candidates);
+                    trace.add(HighlightTrace.Phase.SCORING, startNanos);
+                    startNanos = System.nanoTime();
+                    bestFragments = entry.fused.getBestFragments(text, tokens == null ? null : tokens[i], entry.candidates, entry.margin, numberOfFragments);
+                    trace.add(HighlightTrace.Phase.ANALYSIS, startNanos);
+                } else if (tokens != null) {
+                    bestFragments = entry.fused.getBestFragments(text, tokens[i], numberOfFragments);
+                    trace.add(HighlightTrace.Phase.ANALYSIS, startNanos);
+                } else {
+                    // tokens are scored and written as they are analyzed
+                    bestFragments = entry.fused.getBestFragments(text, numberOfFragments);
+                    trace.add(HighlightTrace.Phase.ANALYSIS, startNanos);
+                }
+                for (SplitFragment fragment : bestFragments) {
+                    fragsList.add(fragment);
+                }
+                offset += text.length() + offsetGap;
+            }
+            if (field.scoreOrdered()) {
+                Collections.sort(fragsList, new Comparator<SplitFragment>() {
+                    public int compare(SplitFragment o1, SplitFragment o2) {
+                        return Math.round(o2.getScore() - o1.getScore());
+                    }
+                });
+            }
+            // number_of_fragments is set to 0 but we have a multivalued field
+            if (field.numberOfFragments() == 0 && textsToHighlight.size() > 1) {
+                numberOfFragments = fragsList.size();
+            } else {
+                numberOfFragments = fragsList.size() < numberOfFragments ? fragsList.size() : numberOfFragments;
+            }
+            if (numberOfFragments > 0) {
+                long startNanos = System.nanoTime();
+                HighlightField highlightField = new HighlightField(highlightFieldName, FragmentTexts.toTexts(fragsList, numberOfFragments));
+                trace.add(HighlightTrace.Phase.SERIALIZATION, startNanos);
+                return highlightField;
+            }
+
+            return null;
+        } finally {
+            entry.markup.setTrace(null);
+        }
+    }
+
+    /**
+     * Returns the split tokens of the values of <code>docId</code> from the {@link TokenBoundaryCache},
+     * scanning and caching them when they are not there yet.
+     */
+    private SplitTokens[] splitTokens(SplitEntry entry, AtomicReader reader, int docId, FieldMapper<?> mapper, List<Object> textsToHighlight) throws IOException {
+        TokenBoundaryCache.Key key = new TokenBoundaryCache.Key(reader.getCoreCacheKey(), docId, mapper.names().indexName());
+        SplitTokens[] tokens = tokenCache.get(key);
+        if (tokens != null && matches(tokens, textsToHighlight)) {
+            return tokens;
+        }
+        tokens = scanTokens(entry, textsToHighlight);
+        tokenCache.put(reader, key, tokens);
+        return tokens;
+    }
+
+    private static SplitTokens[] scanTokens(SplitEntry entry, List<Object> textsToHighlight) throws IOException {
+        SplitTokens[] tokens = new SplitTokens[textsToHighlight.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = SplitTokens.scan(textsToHighlight.get(i).toString(), entry.maxTokenLength);
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the tokens the highlighted fields of the request share, or <tt>null</tt> when no other
+     * highlighted field of the hit type reads the values of the field, so that values that do not
+     * repeat are neither scanned apart nor kept.
+     */
+    @SuppressWarnings("unchecked")
+    private static SharedSplitTokens sharedTokens(HighlighterContext highlighterContext) {
+        HighlightRequestCache cache = HighlightRequestCache.of(highlighterContext.context);
+        String type = highlighterContext.hitContext.hit().type();
+        Set<String> sharedPaths = (Set<String>) cache.get(SHARED_PATHS_CACHE_KEY + type);
+        if (sharedPaths == null) {
+            sharedPaths = sharedPaths(highlighterContext.context, type);
+            cache.put(SHARED_PATHS_CACHE_KEY + type, sharedPaths);
+        }
+        if (!sharedPaths.contains(highlighterContext.mapper.names().sourcePath())) {
+            return null;
+        }
+        SharedSplitTokens sharedTokens = (SharedSplitTokens) cache.get(SHARED_TOKENS_CACHE_KEY);
+        if (sharedTokens == null) {
+            sharedTokens = new SharedSplitTokens();
+            cache.put(SHARED_TOKENS_CACHE_KEY, sharedTokens);
+        }
+        return sharedTokens;
+    }
+
+    /**
+     * The source paths read by more than one highlighted field of <code>type</code>, like the
+     * sub-fields of a multi_field, a wildcard field resolving to the fields it matches.
+     */
+    private static Set<String> sharedPaths(SearchContext context, String type) {
+        Set<String> sharedPaths = new HashSet<String>();
+        DocumentMapper documentMapper = context.mapperService().documentMapper(type);
+        if (documentMapper == null) {
+            return sharedPaths;
+        }
+        Set<String> paths = new HashSet<String>();
+        for (SearchContextHighlight.Field field : context.highlight().fields()) {
+            Set<String> fieldNames;
+            if (Regex.isSimpleMatchPattern(field.field())) {
+                fieldNames = documentMapper.mappers().simpleMatchToFullName(field.field());
+            } else {
+                fieldNames = ImmutableSet.of(field.field());
+            }
+            for (String fieldName : fieldNames) {
+                FieldMapper<?> mapper = documentMapper.mappers().smartNameFieldMapper(fieldName);
+                if (mapper != null && !paths.add(mapper.names().sourcePath())) {
+                    sharedPaths.add(mapper.names().sourcePath());
+                }
+            }
+        }
+        return sharedPaths;
+    }
+
+    private static boolean matches(SplitTokens[] tokens, List<Object> textsToHighlight) {
+        if (tokens.length != textsToHighlight.size()) {
+            return false;
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            if (!tokens[i].matches(textsToHighlight.get(i).toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Highlights the field of all the hits of the request on the {@link HighlightExecutor} the first
+     * time it is highlighted, the following hits then waiting for their own result. A hit that could
+     * not be submitted, the executor queue being full, is highlighted on the fetch thread. The pending
+     * results are kept in the {@link HighlightRequestCache}, which cancels the tasks that did not start
+     * when the request is done. A failure cancels them as well, and so does the budget timeout, the
+     * hits that were not highlighted in time getting their leading text.
+     */
+    private HighlightField highlightParallel(HighlighterContext highlighterContext, SplitAnalyzer splitAnalyzer, HighlightTrace trace) {
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        SearchContext context = highlighterContext.context;
+        HighlightRequestCache requestCache = HighlightRequestCache.of(context);
+
+        if (!requestCache.containsKey(PARALLEL_CACHE_KEY)) {
+            Map<FieldMapper, Map<Integer, ParallelResult>> mappers = Maps.newHashMap();
+            requestCache.put(PARALLEL_CACHE_KEY, mappers);
+        }
+        Map<FieldMapper, Map<Integer, ParallelResult>> cache = (Map<FieldMapper, Map<Integer, ParallelResult>>) requestCache.get(PARALLEL_CACHE_KEY);
+
+        int docId = hitContext.readerContext().docBase + hitContext.docId();
+        Map<Integer, ParallelResult> results = cache.get(highlighterContext.mapper);
+        if (results == null) {
+            results = submit(highlighterContext, splitAnalyzer, docId, requestCache);
+            cache.put(highlighterContext.mapper, results);
+        }
+        ParallelResult result = results.remove(docId);
+        if (result == null) {
+            return highlightFused(highlighterContext, splitAnalyzer, trace);
+        }
+        HighlightBudget budget = budget(highlighterContext);
+        long remainingNanos = budget == null ? -1 : budget.remainingNanos();
+        try {
+            HighlightField highlightField = remainingNanos < 0 ? result.future.get() : result.future.get(remainingNanos, TimeUnit.NANOSECONDS);
+            // the task is done with its trace
+            trace.add(result.trace);
+            return highlightField;
+        } catch (TimeoutException e) {
+            requestCache.cancel();
+            return leadingText(highlighterContext.field, highlighterContext.fieldName, loadTexts(highlighterContext, trace), trace);
+        } catch (CancellationException e) {
+            return leadingText(highlighterContext.field, highlighterContext.fieldName, loadTexts(highlighterContext, trace), trace);
+        } catch (InterruptedException e) {
+            requestCache.cancel();
+            Thread.currentThread().interrupt();
+            throw new FetchPhaseExecutionException(context, "Interrupted while highlighting field [" + highlighterContext.fieldName + "]", e);
+        } catch (ExecutionException e) {
+            requestCache.cancel();
+            throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e.getCause());
+        }
+    }
+
+    /**
+     * Submits the highlighting of the field for the hits of the request but <code>currentDocId</code>,
+     * which the fetch thread is about to highlight itself. The tasks share a pool of entries, as they
+     * are not thread safe. With a budget, the hits are admitted on the fetch thread in hit order
+     * first, as the sequential highlighting would, the tasks using the decisions taken.
+     */
+    private Map<Integer, ParallelResult> submit(HighlighterContext highlighterContext, final SplitAnalyzer splitAnalyzer, int currentDocId,
+                                                HighlightRequestCache requestCache) {
+        final SearchContext context = highlighterContext.context;
+        final SearchContextHighlight.Field field = highlighterContext.field;
+        final FieldMapper<?> mapper = highlighterContext.mapper;
+        final String fieldName = highlighterContext.fieldName;
+        final List<AtomicReaderContext> leaves = context.searcher().getIndexReader().leaves();
+        Analyzer indexAnalyzer = mapper.indexAnalyzer() != null ? mapper.indexAnalyzer() : context.analysisService().defaultIndexAnalyzer();
+        final int offsetGap = indexAnalyzer.getOffsetGap(mapper.names().indexName());
+        final HighlightBudget budget = budget(highlighterContext);
+        final SharedSplitTokens sharedTokens = sharedTokens(highlighterContext);
+        final Queue<SplitEntry> entries = new ConcurrentLinkedQueue<SplitEntry>();
+        // rewrites the query on the fetch thread, the tasks then find it in the cache
+        entries.add(newSplitEntry(context, field, mapper, fieldName, splitAnalyzer));
+
+        Map<Integer, ParallelResult> results = new HashMap<Integer, ParallelResult>();
+        // the decisions of the hits the fetch thread highlights itself
+        Map<Integer, Boolean> admissions = budget == null ? null : admissions(highlighterContext, true);
+        int[] docIdsToLoad = context.docIdsToLoad();
+        for (int i = context.docIdsToLoadFrom(); i < context.docIdsToLoadFrom() + context.docIdsToLoadSize(); i++) {
+            final int docId = docIdsToLoad[i];
+            AtomicReaderContext hitLeaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+            final HighlightTrace trace = new HighlightTrace();
+            final List<Object> admittedTexts;
+            final boolean admitted;
+            if (budget != null) {
+                try {
+                    if (docId != currentDocId && !mayMatch(context, field, mapper, hitLeaf.reader(), docId - hitLeaf.docBase)) {
+                        // skipped on its turn, before any admission
+                        continue;
+                    }
+                    admittedTexts = loadTexts(mapper, hitLeaf.reader(), docId - hitLeaf.docBase, trace);
+                } catch (IOException e) {
+                    throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + fieldName + "]", e);
+                }
+                admitted = budget.admit(docId);
+                if (admitted) {
+                    budget.consume(length(admittedTexts));
+                }
+            } else {
+                admittedTexts = null;
+                admitted = true;
+            }
+            if (docId == currentDocId || (resultCache.cacheable(hitLeaf.reader())
+                    && resultCache.contains(resultKey(highlighterContext, hitLeaf.reader(), docId - hitLeaf.docBase)))) {
+                // highlighted or answered from the cache on its turn
+                if (admissions != null) {
+                    admissions.put(docId, admitted);
+                }
+                continue;
+            }
+            Future<HighlightField> result = executor.submit(new Callable<HighlightField>() {
+                @Override
+                public HighlightField call() throws Exception {
+                    AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+                    AtomicReader reader = leaf.reader();
+                    int segmentDocId = docId - leaf.docBase;
+                    List<Object> textsToHighlight = admittedTexts;
+                    if (textsToHighlight == null) {
+                        if (!mayMatch(context, field, mapper, reader, segmentDocId)) {
+                            trace.path("no_match");
+                            return null;
+                        }
+                        textsToHighlight = loadTexts(mapper, reader, segmentDocId, trace);
+                    }
+                    if (!admitted) {
+                        return leadingText(field, fieldName, textsToHighlight, trace);
+                    }
+                    SplitEntry entry = entries.poll();
+                    if (entry == null) {
+                        entry = newSplitEntry(context, field, mapper, fieldName, splitAnalyzer);
+                    }
+                    try {
+                        return highlightFused(entry, field, fieldName, mapper, reader, segmentDocId, textsToHighlight, offsetGap, sharedTokens, trace);
+                    } finally {
+                        entries.add(entry);
+                    }
+                }
+            });
+            if (result != null) {
+                requestCache.addFuture(result);
+                results.put(docId, new ParallelResult(result, trace));
+            } else if (admissions != null) {
+                // rejected, highlighted by the fetch thread on its turn
+                admissions.put(docId, admitted);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The pending highlight of a hit on the {@link HighlightExecutor}, along with the trace its task
+     * fills.
+     */
+    private static class ParallelResult {
+        final Future<HighlightField> future;
+        final HighlightTrace trace;
+
+        ParallelResult(Future<HighlightField> future, HighlightTrace trace) {
+            this.future = future;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * Returns the highlighting budget of the request, created from the node settings and the
+     * <code>budget_max_analyzed_chars</code>, <code>budget_timeout</code> and <code>budget_max_hits</code>
+     * options, or <tt>null</tt> when none of them limits it. The budget being the request's, the fields
+     * may not give different values, which they inherit from the global options otherwise.
+     */
+    private HighlightBudget budget(HighlighterContext highlighterContext) {
+        HighlightRequestCache cache = HighlightRequestCache.of(highlighterContext.context);
+        Object budget = cache.get(BUDGET_CACHE_KEY);
+        if (budget == null) {
+            long maxChars = budgetMaxAnalyzedChars;
+            TimeValue timeout = budgetTimeout;
+            int maxHits = budgetMaxHits;
+            SearchContextHighlight highlight = highlighterContext.context.highlight();
+            Object option = budgetOption(highlight, "budget_max_analyzed_chars");
+            if (option != null) {
+                maxChars = Long.parseLong(option.toString());
+            }
+            option = budgetOption(highlight, "budget_timeout");
+            if (option != null) {
+                timeout = TimeValue.parseTimeValue(option.toString(), timeout);
+            }
+            option = budgetOption(highlight, "budget_max_hits");
+            if (option != null) {
+                maxHits = Integer.parseInt(option.toString());
+            }
+            budget = new HighlightBudget(maxChars, timeout.nanos(), maxHits);
+            cache.put(BUDGET_CACHE_KEY, budget);
+        }
+        return ((HighlightBudget) budget).limited() ? (HighlightBudget) budget : null;
+    }
+
+    static Object budgetOption(SearchContextHighlight highlight, String name) {
+        Object value = null;
+        for (SearchContextHighlight.Field field : highlight.fields()) {
+            Object fieldValue = field.options() == null ? null : field.options().get(name);
+            if (fieldValue == null) {
+                continue;
+            }
+            if (value != null && !value.toString().equals(fieldValue.toString())) {
+                throw new ElasticSearchIllegalArgumentException("the fields give different [" + name + "] options, [" + value + "] and ["
+                        + fieldValue + "], while the highlighting budget is the request's");
+            }
+            value = fieldValue;
+        }
+        return value;
+    }
+
+    /**
+     * Whether the hit may be analyzed, the budget being charged for <code>textsToHighlight</code> when
+     * it is. The decision is the one taken in hit order by {@link #submit} when there is one.
+     */
+    private boolean admit(HighlighterContext highlighterContext, List<Object> textsToHighlight) {
+        HighlightBudget budget = budget(highlighterContext);
+        if (budget == null) {
+            return true;
+        }
+        int docId = highlighterContext.hitContext.readerContext().docBase + highlighterContext.hitContext.docId();
+        Map<Integer, Boolean> admissions = admissions(highlighterContext, false);
+        Boolean admitted = admissions == null ? null : admissions.remove(docId);
+        if (admitted != null) {
+            return admitted;
+        }
+        if (!budget.admit(docId)) {
+            return false;
+        }
+        budget.consume(length(textsToHighlight));
+        return true;
+    }
+
+    /**
+     * The budget decisions of the hits of the field taken by {@link #submit}.
+     */
+    private static Map<Integer, Boolean> admissions(HighlighterContext highlighterContext, boolean create) {
+        HighlightRequestCache requestCache = HighlightRequestCache.of(highlighterContext.context);
+        Map<FieldMapper, Map<Integer, Boolean>> cache = (Map<FieldMapper, Map<Integer, Boolean>>) requestCache.get(ADMISSIONS_CACHE_KEY);
+        if (cache == null) {
+            if (!create) {
+                return null;
+            }
+            cache = Maps.newHashMap();
+            requestCache.put(ADMISSIONS_CACHE_KEY, cache);
+        }
+        Map<Integer, Boolean> admissions = cache.get(highlighterContext.mapper);
+        if (admissions == null && create) {
+            admissions = new HashMap<Integer, Boolean>();
+            cache.put(highlighterContext.mapper, admissions);
+        }
+        return admissions;
+    }
+
+    /**
+     * The degraded highlight of a hit over budget: the leading <code>fragment_size</code> chars of its
+     * first value, or all its values as they are when the field is not fragmented.
+     */
+    private static HighlightField leadingText(SearchContextHighlight.Field field, String highlightFieldName, List<Object> textsToHighlight,
+                                              HighlightTrace trace) {
+        trace.path("leading_text");
+        if (textsToHighlight.isEmpty()) {
+            return null;
+        }
+        String[] fragments;
+        if (field.numberOfFragments() == 0) {
+            fragments = new String[textsToHighlight.size()];
+            for (int i = 0; i < fragments.length; i++) {
+                fragments[i] = textsToHighlight.get(i).toString();
+            }
+        } else {
+            String text = textsToHighlight.get(0).toString();
+            int end = SplitMarkup.wordEnd(text, Math.min(field.fragmentCharSize(), text.length()));
+            fragments = new String[] { text.substring(0, end) };
+        }
+        return new DegradedHighlightField(highlightFieldName, StringText.convertFromStringArray(fragments));
+    }
+
+    private static long length(List<Object> textsToHighlight) {
+        long length = 0;
+        for (Object text : textsToHighlight) {
+            length += text.toString().length();
+        }
+        return length;
+    }
+
+    /**
+     * Looks the terms of the query up in the terms index of the field, so that fields requiring a field
+     * match are skipped before their values are loaded when the document does not hold any of them.
+     * Returns <tt>true</tt> whenever the index cannot tell, that is for other queries and fields that
+     * are not indexed.
+     */
+    private boolean mayMatch(HighlighterContext highlighterContext) {
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        try {
+            return mayMatch(highlighterContext.context, highlighterContext.field, highlighterContext.mapper, hitContext.reader(), hitContext.docId());
+        } catch (IOException e) {
+            throw new FetchPhaseExecutionException(highlighterContext.context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e);
+        }
+    }
+
+    private boolean mayMatch(SearchContext context, SearchContextHighlight.Field field, FieldMapper<?> mapper, AtomicReader reader, int docId) throws IOException {
+        if (!field.requireFieldMatch() || !mapper.fieldType().indexed()) {
+            return true;
+        }
+        HighlightTerms terms = highlightQuery(context, context.parsedQuery().query(), field, mapper).terms();
+        if (terms == null) {
+            return true;
+        }
+        return terms.occurIn(reader, docId, mapper.names().indexName());
+    }
+
+    /**
+     * Returns the split analyzer when the field can be highlighted in a single pass. The single pass
+     * scores the split tokens lower cased instead of the terms of the index analyzer of the field, so
+     * it is the default only when that analyzer indexes such tokens, see
+     * {@link #indexesSplitTokens(Analyzer, String, SplitAnalyzer)}. Fields analyzed with a
+     * {@link SplitAnalyzer} are not among them, their terms carrying the split markup, and neither are
+     * stemmed fields or fields with synonyms. Any tokenized field can opt in with the
+     * <code>split</code> or <code>fused</code> engine, at the cost of highlights differing from the
+     * <code>plain</code> engine ones where the terms differ. Both need a {@link SplitAnalyzer}
+     * registered as <code>split</code>.
+     */
+    private SplitAnalyzer fusedAnalyzer(SearchContext context, SearchContextHighlight.Field field, FieldMapper<?> mapper) {
+        if (!mapper.fieldType().tokenized()) {
+            return null;
+        }
+        Object engine = field.options() == null ? null : field.options().get("engine");
+        if ("plain".equals(engine)) {
+            return null;
+        }
+        NamedAnalyzer analyzer = context.analysisService().analyzer("split");
+        if (analyzer == null || !(analyzer.analyzer() instanceof SplitAnalyzer)) {
+            return null;
+        }
+        SplitAnalyzer splitAnalyzer = (SplitAnalyzer) analyzer.analyzer();
+        if ("split".equals(engine) || "fused".equals(engine)) {
+            return splitAnalyzer;
+        }
+        Analyzer indexAnalyzer = mapper.indexAnalyzer() != null ? mapper.indexAnalyzer() : context.analysisService().defaultIndexAnalyzer();
+        Boolean matching = splitMatching.getIfPresent(indexAnalyzer);
+        if (matching == null) {
+            try {
+                matching = indexesSplitTokens(indexAnalyzer, mapper.names().indexName(), splitAnalyzer);
+            } catch (IOException e) {
+                matching = false;
+            }
+            splitMatching.put(indexAnalyzer, matching);
+        }
+        return matching ? splitAnalyzer : null;
+    }
+
+    /**
+     * Whether all the terms <code>analyzer</code> indexes for {@link #PROBE_TEXT} are split match
+     * tokens of it, so that the query terms of the field are found among the tokens the single pass
+     * scores. A stem, a synonym or a token with the split markup is not. Terms the analyzer drops,
+     * like stop words, do not matter, a query holding none of them.
+     */
+    static boolean indexesSplitTokens(Analyzer analyzer, String fieldName, SplitAnalyzer splitAnalyzer) throws IOException {
+        Set<String> splitTokens = new HashSet<String>(terms(splitAnalyzer.matchTokenStream(new FastStringReader(PROBE_TEXT))));
+        List<String> terms = terms(analyzer.tokenStream(fieldName, new FastStringReader(PROBE_TEXT)));
+        return !terms.isEmpty() && splitTokens.containsAll(terms);
+    }
+
+    private static List<String> terms(TokenStream stream) throws IOException {
+        List<String> terms = new ArrayList<String>();
+        CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+        try {
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(termAtt.toString());
+            }
+            stream.end();
+        } finally {
+            stream.close();
+        }
+        return terms;
+    }
+
+    /**
+     * The chars of a value analyzed at most, the fragments found by then being returned, by both
+     * engines. Set by the <code>max_analyzed_chars</code> option, defaulting to the node setting
+     * <code>split_highlight.max_analyzed_chars</code>, <tt>0</tt> meaning whole values.
+     */
+    private int maxAnalyzedChars(SearchContextHighlight.Field field) {
+        if (field.options() == null || field.options().get("max_analyzed_chars") == null) {
+            return maxAnalyzedChars;
+        }
+        return Integer.parseInt(field.options().get("max_analyzed_chars").toString());
+    }
+
+    /**
+     * Whether the fragments are returned as their text and spans, see {@link SplitFragment}, instead of
+     * the split markup, which the request asks for with <code>"output": "spans"</code>. Only the split
+     * engine writes spans, the request failing on fields highlighted by the plain one.
+     */
+    private boolean spans(SearchContextHighlight.Field field) {
+        return field.options() != null && "spans".equals(field.options().get("output"));
+    }
+
+    /**
+     * Whether the values are scanned for the query terms before being analyzed, so that only the text
+     * around them is. Only term queries can be prefiltered, and the request can turn it off with the
+     * <code>prefilter</code> option.
+     */
+    private boolean prefilter(SearchContextHighlight.Field field) {
+        if (field.options() == null) {
+            return true;
+        }
+        Object prefilter = field.options().get("prefilter");
+        return prefilter == null || !"false".equals(prefilter.toString());
+    }
+
+    /**
+     * Returns where the offsets of the query terms can be read from: the term vectors when they hold
+     * offsets, else the postings when they are indexed with offsets. Returns <tt>null</tt> when the
+     * field has neither or the request asked for the <code>fused</code> engine.
+     */
+    private OffsetSource offsetSource(SearchContextHighlight.Field field, FieldMapper<?> mapper) {
+        if (field.options() != null && "fused".equals(field.options().get("engine"))) {
+            return null;
+        }
+        if (mapper.fieldType().storeTermVectors() && mapper.fieldType().storeTermVectorOffsets()) {
+            return TERM_VECTOR_OFFSETS;
+        }
+        if (mapper.fieldType().indexOptions() == FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) {
+            return POSTINGS_OFFSETS;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the fragmenter asked for by the request, the span fragmenter falling back to the simple
+     * one when there is no <code>queryScorer</code>, spans being single tokens then.
+     */
+    private Fragmenter fragmenter(SearchContextHighlight.Field field, QueryScorer queryScorer, String fieldName) {
+        if (field.numberOfFragments() == 0) {
+            return new NullFragmenter();
+        } else if (field.fragmenter() == null || "span".equals(field.fragmenter())) {
+            if (queryScorer == null) {
+                return new SimpleFragmenter(field.fragmentCharSize());
+            }
+            return new SimpleSpanFragmenter(queryScorer, field.fragmentCharSize());
+        } else if ("simple".equals(field.fragmenter())) {
+            return new SimpleFragmenter(field.fragmentCharSize());
+        } else {
+            throw new ElasticSearchIllegalArgumentException("unknown fragmenter option [" + field.fragmenter() + "] for the field [" + fieldName + "]");
+        }
+    }
+
+    private List<Object> loadTexts(HighlighterContext highlighterContext, HighlightTrace trace) {
+        SearchContext context = highlighterContext.context;
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        FieldMapper<?> mapper = highlighterContext.mapper;
+
+        long startNanos = System.nanoTime();
+        List<Object> textsToHighlight;
+        if (mapper.fieldType().stored()) {
+            try {
+                String field = mapper.names().indexName();
+                HighlightRequestCache requestCache = HighlightRequestCache.of(context);
+                StoredValues storedValues = (StoredValues) requestCache.get(STORED_CACHE_KEY);
+                if (storedValues == null) {
+                    // read the highlighted fields of all the hits at once, in doc id order
+                    storedValues = StoredValues.load(context, field);
+                    requestCache.put(STORED_CACHE_KEY, storedValues);
+                }
+                int docId = hitContext.readerContext().docBase + hitContext.docId();
+                if (storedValues.contains(docId, field)) {
+                    textsToHighlight = storedValues.get(docId, field);
+                } else {
+                    CustomFieldsVisitor fieldVisitor = new CustomFieldsVisitor(ImmutableSet.of(mapper.names().indexName()), false);
+                    hitContext.reader().document(hitContext.docId(), fieldVisitor);
+                    textsToHighlight = fieldVisitor.fields().get(mapper.names().indexName());
+                }
+                trace.add(HighlightTrace.Phase.LOAD_STORED, startNanos);
+                trace.source("stored");
+            } catch (Exception e) {
+                throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e);
+            }
+        } else {
+            try {
+                textsToHighlight = loadSourceValues(highlighterContext).get(mapper.names().sourcePath());
+                trace.add(HighlightTrace.Phase.LOAD_SOURCE, startNanos);
+                trace.source("source");
+            } catch (Exception e) {
+                throw new FetchPhaseExecutionException(context, "Failed to highlight field [" + highlighterContext.fieldName + "]", e);
+            }
+        }
+        return textsToHighlight;
+    }
+
+    /**
+     * Reads the values of <code>docId</code> without the caches of the fetch thread.
+     */
+    private List<Object> loadTexts(FieldMapper<?> mapper, AtomicReader reader, int docId, HighlightTrace trace) throws IOException {
+        long startNanos = System.nanoTime();
+        if (mapper.fieldType().stored()) {
+            CustomFieldsVisitor fieldVisitor = new CustomFieldsVisitor(ImmutableSet.of(mapper.names().indexName()), false);
+            reader.document(docId, fieldVisitor);
+            trace.add(HighlightTrace.Phase.LOAD_STORED, startNanos);
+            trace.source("stored");
+            return fieldVisitor.fields().get(mapper.names().indexName());
+        }
+        JustSourceFieldsVisitor sourceVisitor = new JustSourceFieldsVisitor();
+        reader.document(docId, sourceVisitor);
+        String path = mapper.names().sourcePath();
+        List<Object> textsToHighlight = SourceValues.extract(docId, sourceVisitor.source(), Collections.singleton(path)).get(path);
+        trace.add(HighlightTrace.Phase.LOAD_SOURCE, startNanos);
+        trace.source("source");
+        return textsToHighlight;
+    }
+
+    /**
+     * Returns the values of the highlighted fields that are not stored, streamed out of the
+     * <code>_source</code> of the hit once for all of them.
+     */
+    private SourceValues loadSourceValues(HighlighterContext highlighterContext) throws IOException {
+        SearchContext context = highlighterContext.context;
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        String path = highlighterContext.mapper.names().sourcePath();
+        int docId = hitContext.readerContext().docBase + hitContext.docId();
+
+        SourceValues sourceValues = (SourceValues) hitContext.cache().get(SOURCE_CACHE_KEY);
+        if (sourceValues != null && sourceValues.docId() == docId && sourceValues.paths().contains(path)) {
+            return sourceValues;
+        }
+        Set<String> paths = new HashSet<String>();
+        if (sourceValues != null) {
+            paths.addAll(sourceValues.paths());
+        } else {
+            for (SearchContextHighlight.Field field : context.highlight().fields()) {
+                FieldMapper<?> mapper = context.smartNameFieldMapper(field.field());
+                if (mapper != null && !mapper.fieldType().stored()) {
+                    paths.add(mapper.names().sourcePath());
+                }
+            }
+        }
+        // wildcard fields are only resolved as the hits are highlighted
+        paths.add(path);
+
+        BytesReference source = hitContext.hit().sourceRef();
+        if (source == null) {
+            JustSourceFieldsVisitor sourceVisitor = new JustSourceFieldsVisitor();
+            hitContext.reader().document(hitContext.docId(), sourceVisitor);
+            source = sourceVisitor.source();
+        }
+        sourceValues = SourceValues.extract(docId, source, paths);
+        hitContext.cache().put(SOURCE_CACHE_KEY, sourceValues);
+        return sourceValues;
+    }
+
+    private static class SplitEntry {
+        SplitMarkup markup;
+        String scorer;
+        SplitFragmentHighlighter fused;
+        int maxTokenLength;
+        // set when the matches can be read from the term vectors or the postings
+        OffsetSplitHighlighter offsets;
+        OffsetSource offsetSource;
+        HighlightTerms terms;
+        final OffsetMatches matches = new OffsetMatches();
+        // set when only the text around the query terms needs the analysis
+        AhoCorasick prefilter;
+        int margin;
+        final OffsetMatches candidates = new OffsetMatches();
+    }
+
     private static class Encoders {
         public static Encoder DEFAULT = new DefaultEncoder();
         public static Encoder HTML = new SimpleHTMLEncoder();
     }
 
+    /**
+     * Returns the query rewritten for the field, from the cache when the same query was highlighted
+     * on the same field before.
+     */
+    private HighlightQuery highlightQuery(SearchContext context, Query query, SearchContextHighlight.Field field, FieldMapper<?> mapper) {
+        HighlightQueryCache.Key key = queryKey(context, query, field, mapper);
+        HighlightQuery highlightQuery = queryCache.get(key);
+        if (highlightQuery == null) {
+            Query newQuery = rewrite(context, query, field, mapper);
+            highlightQuery = new HighlightQuery(newQuery, field.requireFieldMatch() ? mapper.names().indexName() : null);
+            queryCache.put(key, highlightQuery);
+        }
+        return highlightQuery;
+    }
+
+    private HighlightQueryCache.Key queryKey(SearchContext context, Query query, SearchContextHighlight.Field field, FieldMapper<?> mapper) {
+        return new HighlightQueryCache.Key(context.shardTarget().index(), query, mapper.names().indexName(), field.requireFieldMatch());
+    }
+
+    /**
+     * The key of the highlighted field of the hit in the {@link HighlightResultCache}: the document in
+     * its segment, the query and all the options the fragments depend on.
+     */
+    private HighlightResultCache.Key resultKey(HighlighterContext highlighterContext) {
+        FetchSubPhase.HitContext hitContext = highlighterContext.hitContext;
+        return resultKey(highlighterContext, hitContext.reader(), hitContext.docId());
+    }
+
+    private HighlightResultCache.Key resultKey(HighlighterContext highlighterContext, AtomicReader reader, int docId) {
+        SearchContextHighlight.Field field = highlighterContext.field;
+        HighlightQueryCache.Key queryKey = queryKey(highlighterContext.context, highlighterContext.context.parsedQuery().query(), field, highlighterContext.mapper);
+        return new HighlightResultCache.Key(reader.getCoreCacheKey(), docId, highlighterContext.fieldName, queryKey,
+                field.preTags()[0], field.postTags()[0], field.fragmenter(), field.fragmentCharSize(), field.numberOfFragments(),
+                field.scoreOrdered(), field.options());
+    }
+
     //Start of Jackie
     private Query rewrite(SearchContext context, Query query, SearchContextHighlight.Field field, FieldMapper mapper) {
         if (!field.requireFieldMatch()) return query;
@@ -226,7 +1357,16 @@ public class SplitHighlighter implements Highlighter {
             }
         }
         AnalysisService analysisService = context.analysisService();
-        Analyzer analyzer = analysisService.analyzer("split");
+        NamedAnalyzer analyzer = analysisService.analyzer("split");
+        String index = null;
+        if (markupCache.enabled()) {
+            index = context.shardTarget().index();
+            // the single pass memoizes under the split analyzer itself
+            String markup = markupCache.get(index, analyzer.analyzer(), content);
+            if (markup != null) {
+                return markup;
+            }
+        }
         TokenStream stream = analyzer.tokenStream(mapper.names().indexName(), new StringReader(content));
         stream.reset();
         List<String> list = new ArrayList<String>();
@@ -235,7 +1375,11 @@ public class SplitHighlighter implements Highlighter {
             list.add(ta.toString());
         }
         Joiner joiner = Joiner.on("");
-        return joiner.join(list);
+        String markup = joiner.join(list);
+        if (index != null) {
+            markupCache.put(index, analyzer.analyzer(), content, markup);
+        }
+        return markup;
     }
     //End of Jackie
 }
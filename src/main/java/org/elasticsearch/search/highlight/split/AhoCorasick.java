@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import java.util.*;
+
+/**
+ * An Aho-Corasick automaton over the terms of a query, finding all their occurrences in a value in a
+ * single scan. Chars are lower cased the same way the split tokens are before they are matched, so
+ * any token matching a term is found, along with occurrences inside longer tokens.
+ */
+public class AhoCorasick {
+
+    private final char[][] labels;
+
+    private final int[][] children;
+
+    private final int[] fail;
+
+    private final int[] output;
+
+    private final int[] outputLink;
+
+    private final int[] lengths;
+
+    public AhoCorasick(HighlightTerms terms) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<Integer> outputs = new ArrayList<Integer>();
+        trie.add(new TreeMap<Character, Integer>());
+        outputs.add(-1);
+        lengths = new int[terms.size()];
+        for (int ord = 0; ord < terms.size(); ord++) {
+            String term = terms.term(ord);
+            lengths[ord] = term.length();
+            int node = 0;
+            for (int i = 0; i < term.length(); i++) {
+                Character c = Character.toLowerCase(term.charAt(i));
+                Integer child = trie.get(node).get(c);
+                if (child == null) {
+                    child = trie.size();
+                    trie.get(node).put(c, child);
+                    trie.add(new TreeMap<Character, Integer>());
+                    outputs.add(-1);
+                }
+                node = child;
+            }
+            if (node != 0 && outputs.get(node) < 0) {
+                outputs.set(node, ord);
+            }
+        }
+
+        int size = trie.size();
+        labels = new char[size][];
+        children = new int[size][];
+        output = new int[size];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> edges = trie.get(node);
+            labels[node] = new char[edges.size()];
+            children[node] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                labels[node][i] = edge.getKey();
+                children[node][i] = edge.getValue();
+                i++;
+            }
+            output[node] = outputs.get(node);
+        }
+
+        fail = new int[size];
+        outputLink = new int[size];
+        outputLink[0] = -1;
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int child : children[0]) {
+            fail[child] = 0;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.removeFirst();
+            for (int i = 0; i < labels[node].length; i++) {
+                char c = labels[node][i];
+                int child = children[node][i];
+                int state = fail[node];
+                while (state != 0 && next(state, c) < 0) {
+                    state = fail[state];
+                }
+                int target = next(state, c);
+                fail[child] = target >= 0 ? target : 0;
+                outputLink[child] = output[fail[child]] >= 0 ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    private int next(int node, char c) {
+        int index = Arrays.binarySearch(labels[node], c);
+        return index >= 0 ? children[node][index] : -1;
+    }
+
+    /**
+     * Adds every occurrence of the terms in <code>text</code> to <code>matches</code>, sorted.
+     */
+    public void match(String text, OffsetMatches matches) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next = next(state, c);
+            while (next < 0 && state != 0) {
+                state = fail[state];
+                next = next(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (int node = output[state] >= 0 ? state : outputLink[state]; node > 0; node = outputLink[node]) {
+                int ord = output[node];
+                matches.add(i + 1 - lengths[ord], i + 1, ord);
+            }
+        }
+        matches.sort();
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.search.highlight.Scorer;
+import org.apache.lucene.search.highlight.TextFragment;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Scores tokens against {@link HighlightAutomata}. Like
+ * {@link org.apache.lucene.search.highlight.QueryScorer}, a fragment scores the weights of the
+ * distinct terms it holds.
+ */
+public class AutomatonScorer implements Scorer {
+
+    private final HighlightAutomata automata;
+
+    private final Set<String> foundTerms = new HashSet<String>();
+
+    private CharTermAttribute termAtt;
+
+    private float totalScore;
+
+    public AutomatonScorer(HighlightAutomata automata) {
+        this.automata = automata;
+    }
+
+    @Override
+    public TokenStream init(TokenStream tokenStream) {
+        termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+        return null;
+    }
+
+    @Override
+    public void startFragment(TextFragment newFragment) {
+        foundTerms.clear();
+        totalScore = 0;
+    }
+
+    @Override
+    public float getTokenScore() {
+        float score = automata.weight(termAtt.buffer(), termAtt.length());
+        if (score > 0 && foundTerms.add(termAtt.toString())) {
+            totalScore += score;
+        }
+        return score;
+    }
+
+    @Override
+    public float getFragmentScore() {
+        return totalScore;
+    }
+}
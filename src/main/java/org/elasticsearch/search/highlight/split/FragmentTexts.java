@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.BytesText;
+import org.elasticsearch.common.text.Text;
+
+import java.util.List;
+
+/**
+ * Turns fragments into UTF-8 backed {@link Text}s: the fragments are encoded once, straight from their
+ * markup, into a single array that all the texts of a field share. The array is sized to the exact
+ * UTF-8 length of the fragments, measured first, so no intermediate <code>String</code> or second copy
+ * is made, the texts cached weigh the whole array, and the response writes the bytes as they are.
+ */
+public final class FragmentTexts {
+
+    private FragmentTexts() {
+    }
+
+    /**
+     * Returns the texts of the first <code>count</code> fragments.
+     */
+    public static Text[] toTexts(List<SplitFragment> fragments, int count) {
+        CharSequence[] headers = new CharSequence[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            SplitFragment fragment = fragments.get(i);
+            headers[i] = fragment.spanHeader();
+            if (headers[i] != null) {
+                length += utf8Length(headers[i]);
+            }
+            length += utf8Length(fragment.markup());
+        }
+        byte[] bytes = new byte[length];
+        Text[] texts = new Text[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = start;
+            if (headers[i] != null) {
+                end = encodeUTF8(headers[i], bytes, end);
+            }
+            end = encodeUTF8(fragments.get(i).markup(), bytes, end);
+            texts[i] = new BytesText(new BytesArray(bytes, start, end - start));
+            start = end;
+        }
+        return texts;
+    }
+
+    /**
+     * The length of the UTF-8 encoding of <code>chars</code>, as written by
+     * {@link #encodeUTF8(CharSequence, byte[], int)}.
+     */
+    public static int utf8Length(CharSequence chars) {
+        int length = chars.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            int code = chars.charAt(i);
+            if (code < 0x80) {
+                utf8Length++;
+            } else if (code < 0x800) {
+                utf8Length += 2;
+            } else if (code < 0xD800 || code > 0xDFFF) {
+                utf8Length += 3;
+            } else if (code < 0xDC00 && i < length - 1 && chars.charAt(i + 1) >= 0xDC00 && chars.charAt(i + 1) <= 0xDFFF) {
+                // surrogate pair
+                utf8Length += 4;
+                i++;
+            } else {
+                // unpaired surrogate, replaced
+                utf8Length += 3;
+            }
+        }
+        return utf8Length;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of <code>chars</code> to <code>out</code> from <code>upto</code> on,
+     * returning where it ends. <code>out</code> must have room for {@link #utf8Length(CharSequence)}
+     * bytes.
+     */
+    public static int encodeUTF8(CharSequence chars, byte[] out, int upto) {
+        int length = chars.length();
+        for (int i = 0; i < length; i++) {
+            int code = chars.charAt(i);
+            if (code < 0x80) {
+                out[upto++] = (byte) code;
+            } else if (code < 0x800) {
+                out[upto++] = (byte) (0xC0 | (code >> 6));
+                out[upto++] = (byte) (0x80 | (code & 0x3F));
+            } else if (code < 0xD800 || code > 0xDFFF) {
+                out[upto++] = (byte) (0xE0 | (code >> 12));
+                out[upto++] = (byte) (0x80 | ((code >> 6) & 0x3F));
+                out[upto++] = (byte) (0x80 | (code & 0x3F));
+            } else {
+                // surrogate pair, unpaired surrogates being replaced like UnicodeUtil does
+                if (code < 0xDC00 && i < length - 1) {
+                    int low = chars.charAt(i + 1);
+                    if (low >= 0xDC00 && low <= 0xDFFF) {
+                        int codePoint = ((code - 0xD7C0) << 10) + (low & 0x3FF);
+                        i++;
+                        out[upto++] = (byte) (0xF0 | (codePoint >> 18));
+                        out[upto++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        out[upto++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        out[upto++] = (byte) (0x80 | (codePoint & 0x3F));
+                        continue;
+                    }
+                }
+                out[upto++] = (byte) 0xEF;
+                out[upto++] = (byte) 0xBF;
+                out[upto++] = (byte) 0xBD;
+            }
+        }
+        return upto;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.util.CharArrayMap;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.automaton.*;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The terms and the multi term queries (prefix, wildcard and fuzzy) of a query compiled once into
+ * automata, so that each token is matched against them directly instead of the multi term queries
+ * being expanded against every highlighted document.
+ */
+public class HighlightAutomata {
+
+    private final CharArrayMap<Float> terms;
+
+    private final CharacterRunAutomaton[] automata;
+
+    private final float[] weights;
+
+    private HighlightAutomata(CharArrayMap<Float> terms, List<Automaton> automata, List<Float> weights) {
+        this.terms = terms;
+        this.automata = new CharacterRunAutomaton[automata.size()];
+        this.weights = new float[weights.size()];
+        for (int i = 0; i < this.automata.length; i++) {
+            this.automata[i] = new CharacterRunAutomaton(automata.get(i));
+            this.weights[i] = weights.get(i);
+        }
+    }
+
+    /**
+     * Compiles the terms and multi term queries of <code>query</code> on <code>field</code>, or of all
+     * fields when <code>field</code> is <tt>null</tt>. Returns <tt>null</tt> when the query holds
+     * anything else, positional queries for instance.
+     */
+    public static HighlightAutomata extract(Query query, String field) {
+        CharArrayMap<Float> terms = new CharArrayMap<Float>(Lucene.VERSION, 16, false);
+        List<Automaton> automata = new ArrayList<Automaton>();
+        List<Float> weights = new ArrayList<Float>();
+        if (!extract(query, field, 1f, terms, automata, weights)) {
+            return null;
+        }
+        return new HighlightAutomata(terms, automata, weights);
+    }
+
+    private static boolean extract(Query query, String field, float boost, CharArrayMap<Float> terms, List<Automaton> automata, List<Float> weights) {
+        if (query == null) {
+            return true;
+        }
+        boost *= query.getBoost();
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            if (field == null || field.equals(term.field())) {
+                Float weight = terms.get(term.text());
+                if (weight == null || weight < boost) {
+                    terms.put(term.text(), boost);
+                }
+            }
+            return true;
+        } else if (query instanceof MultiTermQuery) {
+            Automaton automaton = toAutomaton((MultiTermQuery) query);
+            if (automaton == null) {
+                return false;
+            }
+            if (field == null || field.equals(((MultiTermQuery) query).getField())) {
+                automata.add(automaton);
+                weights.add(boost);
+            }
+            return true;
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (clause.isProhibited()) {
+                    continue;
+                }
+                if (!extract(clause.getQuery(), field, boost, terms, automata, weights)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof DisjunctionMaxQuery) {
+            for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts()) {
+                if (!extract(disjunct, field, boost, terms, automata, weights)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof FilteredQuery) {
+            return extract(((FilteredQuery) query).getQuery(), field, boost, terms, automata, weights);
+        } else if (query instanceof XFilteredQuery) {
+            return extract(((XFilteredQuery) query).getQuery(), field, boost, terms, automata, weights);
+        } else if (query instanceof ConstantScoreQuery) {
+            return extract(((ConstantScoreQuery) query).getQuery(), field, boost, terms, automata, weights);
+        }
+        return false;
+    }
+
+    /**
+     * The automaton accepting the terms <code>query</code> expands to, <tt>null</tt> when its terms
+     * cannot be told without the terms dictionary.
+     */
+    private static Automaton toAutomaton(MultiTermQuery query) {
+        if (query instanceof PrefixQuery) {
+            String prefix = ((PrefixQuery) query).getPrefix().text();
+            return BasicOperations.concatenate(BasicAutomata.makeString(prefix), BasicAutomata.makeAnyString());
+        } else if (query instanceof WildcardQuery) {
+            return WildcardQuery.toAutomaton(((WildcardQuery) query).getTerm());
+        } else if (query instanceof FuzzyQuery) {
+            FuzzyQuery fuzzyQuery = (FuzzyQuery) query;
+            String text = fuzzyQuery.getTerm().text();
+            int prefixLength = Math.min(fuzzyQuery.getPrefixLength(), text.length());
+            LevenshteinAutomata levenshtein = new LevenshteinAutomata(text.substring(prefixLength), fuzzyQuery.getTranspositions());
+            return BasicOperations.concatenate(BasicAutomata.makeString(text.substring(0, prefixLength)),
+                    levenshtein.toAutomaton(fuzzyQuery.getMaxEdits()));
+        }
+        return null;
+    }
+
+    /**
+     * The weight of the token in <code>buffer</code>, the heaviest of the terms and automata it
+     * matches, <tt>0</tt> when it matches none.
+     */
+    public float weight(char[] buffer, int length) {
+        Float weight = terms.get(buffer, 0, length);
+        float max = weight == null ? 0 : weight;
+        for (int i = 0; i < automata.length; i++) {
+            if (weights[i] > max && automata[i].run(buffer, 0, length)) {
+                max = weights[i];
+            }
+        }
+        return max;
+    }
+}
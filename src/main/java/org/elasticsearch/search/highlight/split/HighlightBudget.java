@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The highlighting budget of a request: how many chars it may analyze, for how long and how many hits
+ * it may highlight. Once it is spent, the remaining hits are not analyzed anymore but get their
+ * leading text instead. A limit of <tt>0</tt> does not limit. Hits may be highlighted concurrently.
+ */
+public class HighlightBudget {
+
+    private final long maxAnalyzedChars;
+
+    private final long deadline;
+
+    private final int maxHits;
+
+    private final AtomicLong analyzedChars = new AtomicLong();
+
+    private final Set<Integer> hits = ConcurrentCollections.newConcurrentSet();
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+
+    private volatile boolean degraded;
+
+    /**
+     * A budget starting now, of <code>timeoutNanos</code> from now.
+     */
+    public HighlightBudget(long maxAnalyzedChars, long timeoutNanos, int maxHits) {
+        this.maxAnalyzedChars = maxAnalyzedChars;
+        this.deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        this.maxHits = maxHits;
+    }
+
+    /**
+     * Whether any of the limits is set.
+     */
+    public boolean limited() {
+        return maxAnalyzedChars > 0 || deadline != 0 || maxHits > 0;
+    }
+
+    /**
+     * Whether the fields of the top level <code>docId</code> may still be analyzed. Once a hit is
+     * admitted, all its fields are, as long as the chars and the time are not spent.
+     */
+    public boolean admit(int docId) {
+        if (maxAnalyzedChars > 0 && analyzedChars.get() >= maxAnalyzedChars) {
+            return refuse();
+        }
+        if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+            return refuse();
+        }
+        if (maxHits > 0 && hits.add(docId) && hitCount.incrementAndGet() > maxHits) {
+            hits.remove(docId);
+            hitCount.decrementAndGet();
+            return refuse();
+        }
+        return true;
+    }
+
+    private boolean refuse() {
+        degraded = true;
+        return false;
+    }
+
+    /**
+     * The nanos left before the deadline, <tt>-1</tt> when the time is not limited.
+     */
+    public long remainingNanos() {
+        if (deadline == 0) {
+            return -1;
+        }
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Records that <code>chars</code> chars were analyzed.
+     */
+    public void consume(long chars) {
+        analyzedChars.addAndGet(chars);
+    }
+
+    public long analyzedChars() {
+        return analyzedChars.get();
+    }
+
+    /**
+     * Whether some hit was refused.
+     */
+    public boolean degraded() {
+        return degraded;
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of the split highlighter bounded by the memory its entries take, counting its hits and
+ * misses. Disabled unless the node setting <code>split_highlight.{name}.size</code> bounds that memory,
+ * entries expiring <code>split_highlight.{name}.expire</code> (defaults to <tt>10m</tt>) after their
+ * last access.
+ */
+public abstract class HighlightCache<K, V> extends AbstractComponent {
+
+    private final Cache<K, V> cache;
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric misses = new CounterMetric();
+
+    protected HighlightCache(Settings settings, String name) {
+        super(settings);
+        ByteSizeValue size = settings.getAsBytesSize("split_highlight." + name + ".size", new ByteSizeValue(0));
+        TimeValue expire = settings.getAsTime("split_highlight." + name + ".expire", TimeValue.timeValueMinutes(10));
+        if (size.bytes() <= 0) {
+            this.cache = null;
+        } else {
+            this.cache = CacheBuilder.newBuilder()
+                    .maximumWeight(size.bytes())
+                    .weigher(new Weigher<K, V>() {
+                        @Override
+                        public int weigh(K key, V value) {
+                            return (int) Math.min(HighlightCache.this.weigh(key, value), Integer.MAX_VALUE);
+                        }
+                    })
+                    .expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+    /**
+     * The bytes an entry takes, roughly.
+     */
+    protected abstract long weigh(K key, V value);
+
+    public boolean enabled() {
+        return cache != null;
+    }
+
+    public V get(K key) {
+        V value = cache.getIfPresent(key);
+        if (value == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+        }
+        return value;
+    }
+
+    /**
+     * Whether <code>key</code> has an entry, without counting it as a hit or a miss.
+     */
+    public boolean contains(K key) {
+        return cache.getIfPresent(key) != null;
+    }
+
+    public void put(K key, V value) {
+        cache.put(key, value);
+    }
+
+    /**
+     * Iterates over the keys, removing a key removing its entry.
+     */
+    protected Iterator<K> keys() {
+        return cache.asMap().keySet().iterator();
+    }
+
+    public long hits() {
+        return hits.count();
+    }
+
+    public long misses() {
+        return misses.count();
+    }
+
+    /**
+     * The number of entries.
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+}
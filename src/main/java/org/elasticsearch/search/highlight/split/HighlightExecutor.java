@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import java.util.concurrent.*;
+
+/**
+ * The bounded pool the split highlighter highlights hits on in parallel. Disabled unless
+ * <code>split_highlight.executor.size</code> is set to the number of threads, its queue holding up to
+ * <code>split_highlight.executor.queue_size</code> tasks (defaults to <tt>1000</tt>). Tasks that do not
+ * fit are rejected and counted, the caller then running them itself.
+ */
+public class HighlightExecutor extends AbstractLifecycleComponent<HighlightExecutor> {
+
+    private final int size;
+
+    private final int queueSize;
+
+    private final CounterMetric rejected = new CounterMetric();
+
+    private volatile ThreadPoolExecutor executor;
+
+    @Inject
+    public HighlightExecutor(Settings settings) {
+        super(settings);
+        this.size = settings.getAsInt("split_highlight.executor.size", 0);
+        this.queueSize = settings.getAsInt("split_highlight.executor.queue_size", 1000);
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+        if (size > 0) {
+            executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                    EsExecutors.daemonThreadFactory(settings, "highlight"));
+        }
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+        ThreadPoolExecutor executor = this.executor;
+        this.executor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+    }
+
+    public boolean enabled() {
+        return executor != null;
+    }
+
+    /**
+     * Submits <code>task</code>, returning <tt>null</tt> when it was rejected.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+            return null;
+        }
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.inc();
+            return null;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int queueSize() {
+        return queueSize;
+    }
+
+    public int active() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public int queued() {
+        ThreadPoolExecutor executor = this.executor;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * The number of tasks rejected since the node started.
+     */
+    public long rejected() {
+        return rejected.count();
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.split.SplitTokenizer;
+import org.elasticsearch.indices.IndicesLifecycle;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The highlighting metrics of the node, per index and field: the latencies of each phase and the
+ * tokens and chars highlighted, aggregated from the {@link HighlightTrace}s of the hits. Recording
+ * only takes atomic increments.
+ * <p/>
+ * The metrics of an index are dropped once it is closed. An index keeps the metrics of at most
+ * <code>split_highlight.metrics.max_fields</code> fields, 100 by default, the fields beyond being
+ * aggregated under {@link #OTHER_FIELDS}, so that highlighting many dynamic fields does not grow them
+ * without bounds.
+ */
+public class HighlightMetrics extends AbstractComponent {
+
+    /**
+     * The field the metrics of the fields beyond the limit of an index are aggregated under.
+     */
+    public static final String OTHER_FIELDS = "_other";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, FieldMetrics>> indices = ConcurrentCollections.newConcurrentMap();
+
+    private final int maxFields;
+
+    @Inject
+    public HighlightMetrics(Settings settings, IndicesLifecycle indicesLifecycle) {
+        super(settings);
+        this.maxFields = settings.getAsInt("split_highlight.metrics.max_fields", 100);
+        indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+            @Override
+            public void afterIndexClosed(Index index, boolean delete) {
+                indices.remove(index.name());
+            }
+        });
+    }
+
+    public void record(String index, String field, HighlightTrace trace) {
+        field(index, field).record(trace);
+    }
+
+    public FieldMetrics field(String index, String field) {
+        ConcurrentMap<String, FieldMetrics> fields = indices.get(index);
+        if (fields == null) {
+            ConcurrentMap<String, FieldMetrics> newFields = ConcurrentCollections.newConcurrentMap();
+            fields = indices.putIfAbsent(index, newFields);
+            if (fields == null) {
+                fields = newFields;
+            }
+        }
+        FieldMetrics metrics = fields.get(field);
+        if (metrics == null && fields.size() >= maxFields) {
+            field = OTHER_FIELDS;
+            metrics = fields.get(field);
+        }
+        if (metrics == null) {
+            FieldMetrics newMetrics = new FieldMetrics();
+            metrics = fields.putIfAbsent(field, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * The metrics of the fields of each index.
+     */
+    public Map<String, ? extends Map<String, FieldMetrics>> indices() {
+        return indices;
+    }
+
+    public static class FieldMetrics implements ToXContent {
+
+        private final CounterMetric count = new CounterMetric();
+
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        private final LatencyHistogram[] phases = new LatencyHistogram[HighlightTrace.Phase.values().length];
+
+        private final CounterMetric[] tokens = new CounterMetric[SplitTokenizer.TOKEN_TYPES.length];
+
+        private final CounterMetric valueChars = new CounterMetric();
+
+        private final CounterMetric tokenChars = new CounterMetric();
+
+        FieldMetrics() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = new CounterMetric();
+            }
+        }
+
+        void record(HighlightTrace trace) {
+            count.inc();
+            total.record(trace.totalNanos());
+            for (HighlightTrace.Phase phase : HighlightTrace.Phase.values()) {
+                long nanos = trace.nanos(phase);
+                if (nanos > 0) {
+                    phases[phase.ordinal()].record(nanos);
+                }
+            }
+            for (int type = 0; type < tokens.length; type++) {
+                long typeTokens = trace.tokens(type);
+                if (typeTokens > 0) {
+                    tokens[type].inc(typeTokens);
+                }
+            }
+            valueChars.inc(trace.valueChars());
+            tokenChars.inc(trace.tokenChars());
+        }
+
+        public long count() {
+            return count.count();
+        }
+
+        public LatencyHistogram phase(HighlightTrace.Phase phase) {
+            return phases[phase.ordinal()];
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("count", count.count());
+            builder.field("value_chars", valueChars.count());
+            builder.field("token_chars", tokenChars.count());
+            builder.field("total");
+            total.toXContent(builder, params);
+            builder.startObject("phases");
+            for (HighlightTrace.Phase phase : HighlightTrace.Phase.values()) {
+                LatencyHistogram histogram = phases[phase.ordinal()];
+                if (histogram.count() > 0) {
+                    builder.field(phase.phaseName());
+                    histogram.toXContent(builder, params);
+                }
+            }
+            builder.endObject();
+            builder.startObject("tokens");
+            for (int type = 0; type < tokens.length; type++) {
+                if (tokens[type].count() > 0) {
+                    builder.field(SplitTokenizer.TOKEN_TYPES[type], tokens[type].count());
+                }
+            }
+            builder.endObject();
+            builder.endObject();
+            return builder;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.util.CharArrayMap;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The exact phrases and terms of a query compiled once into term ids and relative positions, so that
+ * {@link PhraseScorer} matches them on the positions of the split tokens instead of indexing every
+ * highlighted document in a <code>MemoryIndex</code>. A term is a phrase
+ * of a single term.
+ */
+public class HighlightPhrases {
+
+    private final CharArrayMap<Integer> termIds;
+
+    private final int[][] terms;
+
+    private final int[][] positions;
+
+    private final float[] weights;
+
+    private HighlightPhrases(CharArrayMap<Integer> termIds, List<int[]> terms, List<int[]> positions, List<Float> weights) {
+        this.termIds = termIds;
+        this.terms = terms.toArray(new int[terms.size()][]);
+        this.positions = positions.toArray(new int[positions.size()][]);
+        this.weights = new float[weights.size()];
+        for (int i = 0; i < this.weights.length; i++) {
+            this.weights[i] = weights.get(i);
+        }
+    }
+
+    /**
+     * Compiles the phrases without slop and the terms of <code>query</code> on <code>field</code>, or
+     * of all fields when <code>field</code> is <tt>null</tt>. Returns <tt>null</tt> when the query holds
+     * anything else.
+     */
+    public static HighlightPhrases extract(Query query, String field) {
+        CharArrayMap<Integer> termIds = new CharArrayMap<Integer>(Lucene.VERSION, 16, false);
+        List<int[]> terms = new ArrayList<int[]>();
+        List<int[]> positions = new ArrayList<int[]>();
+        List<Float> weights = new ArrayList<Float>();
+        if (!extract(query, field, 1f, termIds, terms, positions, weights)) {
+            return null;
+        }
+        return new HighlightPhrases(termIds, terms, positions, weights);
+    }
+
+    private static boolean extract(Query query, String field, float boost, CharArrayMap<Integer> termIds,
+                                   List<int[]> terms, List<int[]> positions, List<Float> weights) {
+        if (query == null) {
+            return true;
+        }
+        boost *= query.getBoost();
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            if (field == null || field.equals(term.field())) {
+                terms.add(new int[] { termId(termIds, term.text()) });
+                positions.add(new int[] { 0 });
+                weights.add(boost);
+            }
+            return true;
+        } else if (query instanceof PhraseQuery) {
+            PhraseQuery phraseQuery = (PhraseQuery) query;
+            Term[] phraseTerms = phraseQuery.getTerms();
+            if (phraseQuery.getSlop() != 0) {
+                return false;
+            }
+            if (phraseTerms.length == 0 || (field != null && !field.equals(phraseTerms[0].field()))) {
+                return true;
+            }
+            int[] phrasePositions = phraseQuery.getPositions();
+            int[] ids = new int[phraseTerms.length];
+            int[] relativePositions = new int[phraseTerms.length];
+            for (int i = 0; i < phraseTerms.length; i++) {
+                ids[i] = termId(termIds, phraseTerms[i].text());
+                relativePositions[i] = phrasePositions[i] - phrasePositions[0];
+            }
+            terms.add(ids);
+            positions.add(relativePositions);
+            weights.add(boost);
+            return true;
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (clause.isProhibited()) {
+                    continue;
+                }
+                if (!extract(clause.getQuery(), field, boost, termIds, terms, positions, weights)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof DisjunctionMaxQuery) {
+            for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts()) {
+                if (!extract(disjunct, field, boost, termIds, terms, positions, weights)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof FilteredQuery) {
+            return extract(((FilteredQuery) query).getQuery(), field, boost, termIds, terms, positions, weights);
+        } else if (query instanceof XFilteredQuery) {
+            return extract(((XFilteredQuery) query).getQuery(), field, boost, termIds, terms, positions, weights);
+        } else if (query instanceof ConstantScoreQuery) {
+            return extract(((ConstantScoreQuery) query).getQuery(), field, boost, termIds, terms, positions, weights);
+        }
+        return false;
+    }
+
+    private static int termId(CharArrayMap<Integer> termIds, String term) {
+        Integer id = termIds.get(term);
+        if (id == null) {
+            id = termIds.size();
+            termIds.put(term, id);
+        }
+        return id;
+    }
+
+    /**
+     * The id of the term in <code>buffer</code>, <tt>-1</tt> when no phrase holds it.
+     */
+    public int termId(char[] buffer, int length) {
+        Integer id = termIds.get(buffer, 0, length);
+        return id == null ? -1 : id;
+    }
+
+    public int termCount() {
+        return termIds.size();
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * The term ids of <code>phrase</code>.
+     */
+    public int[] terms(int phrase) {
+        return terms[phrase];
+    }
+
+    /**
+     * The positions of the terms of <code>phrase</code>, relative to the first one.
+     */
+    public int[] positions(int phrase) {
+        return positions[phrase];
+    }
+
+    public float weight(int phrase) {
+        return weights[phrase];
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.highlight.WeightedSpanTerm;
+import org.elasticsearch.common.lucene.Lucene;
+
+/**
+ * The highlight query of a field once rewritten for it, with its weighted terms when it is made of
+ * terms only. Immutable, so it is shared by all the requests highlighting the same query.
+ */
+public class HighlightQuery {
+
+    private final Query query;
+
+    private final HighlightTerms terms;
+
+    private final WeightedSpanTerm[] weightedSpanTerms;
+
+    private final HighlightAutomata automata;
+
+    private final HighlightPhrases phrases;
+
+    private volatile AhoCorasick prefilter;
+
+    private volatile CharArraySet termSet;
+
+    public HighlightQuery(Query query, String field) {
+        this.query = query;
+        this.terms = HighlightTerms.extract(query, field);
+        if (terms == null) {
+            this.weightedSpanTerms = null;
+            this.automata = HighlightAutomata.extract(query, field);
+            this.phrases = automata == null ? HighlightPhrases.extract(query, field) : null;
+        } else {
+            this.automata = null;
+            this.phrases = null;
+            this.weightedSpanTerms = new WeightedSpanTerm[terms.size()];
+            for (int ord = 0; ord < terms.size(); ord++) {
+                weightedSpanTerms[ord] = new WeightedSpanTerm(terms.weight(ord), terms.term(ord));
+            }
+        }
+    }
+
+    public Query query() {
+        return query;
+    }
+
+    /**
+     * The terms of the query, <tt>null</tt> when the query needs positions or expansion.
+     */
+    public HighlightTerms terms() {
+        return terms;
+    }
+
+    /**
+     * The terms of the query ready for a {@link org.apache.lucene.search.highlight.QueryScorer}, which
+     * then skips the per document term extraction. <tt>null</tt> when {@link #terms()} is.
+     */
+    public WeightedSpanTerm[] weightedSpanTerms() {
+        return weightedSpanTerms;
+    }
+
+    /**
+     * The terms and multi term queries of the query compiled into automata, when it holds multi term
+     * queries but no positional ones. <tt>null</tt> otherwise, in particular when {@link #terms()} is
+     * not.
+     */
+    public HighlightAutomata automata() {
+        return automata;
+    }
+
+    /**
+     * The exact phrases and terms of the query, when it holds phrases but no other positional or multi
+     * term queries. <tt>null</tt> otherwise.
+     */
+    public HighlightPhrases phrases() {
+        return phrases;
+    }
+
+    /**
+     * The automaton finding the terms of the query in a value, compiled on first use.
+     * <tt>null</tt> when {@link #terms()} is.
+     */
+    public AhoCorasick prefilter() {
+        if (terms == null) {
+            return null;
+        }
+        AhoCorasick prefilter = this.prefilter;
+        if (prefilter == null) {
+            // compiling twice under contention is harmless, both automata are equal
+            prefilter = new AhoCorasick(terms);
+            this.prefilter = prefilter;
+        }
+        return prefilter;
+    }
+
+    /**
+     * The terms of the query in a set probed with the token buffers, built on first use.
+     * <tt>null</tt> when {@link #terms()} is.
+     */
+    public CharArraySet termSet() {
+        if (terms == null) {
+            return null;
+        }
+        CharArraySet termSet = this.termSet;
+        if (termSet == null) {
+            termSet = new CharArraySet(Lucene.VERSION, terms.size(), false);
+            for (int ord = 0; ord < terms.size(); ord++) {
+                termSet.add(terms.term(ord));
+            }
+            termSet = CharArraySet.unmodifiableSet(termSet);
+            this.termSet = termSet;
+        }
+        return termSet;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.search.Query;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.IndicesLifecycle;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of {@link HighlightQuery}, so that requests repeating the same query do not
+ * rewrite it and extract its terms again for every hit.
+ * <p/>
+ * Configured with the node settings <code>split_highlight.query_cache.size</code> (defaults to
+ * <tt>1000</tt> entries) and <code>split_highlight.query_cache.expire</code> (defaults to <tt>10m</tt>
+ * since the last access). The entries of an index are dropped when it is closed or deleted on the
+ * node, so that an index created again under the same name does not get the queries rewritten for the
+ * mappings of the former one.
+ */
+public class HighlightQueryCache extends AbstractComponent {
+
+    private final Cache<Key, HighlightQuery> cache;
+
+    @Inject
+    public HighlightQueryCache(Settings settings, IndicesLifecycle indicesLifecycle) {
+        super(settings);
+        int size = settings.getAsInt("split_highlight.query_cache.size", 1000);
+        TimeValue expire = settings.getAsTime("split_highlight.query_cache.expire", TimeValue.timeValueMinutes(10));
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS)
+                .build();
+        indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+            @Override
+            public void afterIndexClosed(Index index, boolean delete) {
+                invalidate(index.name());
+            }
+        });
+    }
+
+    public HighlightQuery get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(Key key, HighlightQuery highlightQuery) {
+        cache.put(key, highlightQuery);
+    }
+
+    /**
+     * Drops the queries of <code>index</code>.
+     */
+    public void invalidate(String index) {
+        for (Iterator<Key> it = cache.asMap().keySet().iterator(); it.hasNext(); ) {
+            if (it.next().index.equals(index)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The query of a field, the rewritten query and its terms not depending on the fragment options.
+     */
+    public static class Key {
+
+        private final String index;
+
+        private final Query query;
+
+        private final String field;
+
+        private final boolean requireFieldMatch;
+
+        public Key(String index, Query query, String field, boolean requireFieldMatch) {
+            this.index = index;
+            this.query = query;
+            this.field = field;
+            this.requireFieldMatch = requireFieldMatch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (requireFieldMatch != key.requireFieldMatch) return false;
+            if (!index.equals(key.index)) return false;
+            if (!field.equals(key.field)) return false;
+            return query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = index.hashCode();
+            result = 31 * result + query.hashCode();
+            result = 31 * result + field.hashCode();
+            result = 31 * result + (requireFieldMatch ? 1 : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * The state the highlighted hits of a request share, which the hit context cache cannot hold since
+ * the fetch phase creates one per hit. It is only used from the fetch thread, and is released with
+ * {@link #release(SearchContext)} once the highlight phase highlighted the last field of the last hit,
+ * which cancels the tasks the request submitted to the {@link HighlightExecutor} that did not start
+ * yet. A fetch phase failing before is released along with its {@link SearchContext}, which the cache
+ * is only weakly referenced by.
+ * <p/>
+ * A scroll fetches several rounds of hits with the same context, each getting a new cache.
+ */
+public class HighlightRequestCache {
+
+    private static final Cache<SearchContext, HighlightRequestCache> caches = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final Map<String, Object> cache = new HashMap<String, Object>();
+
+    private final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    private int[] docIdsToLoad;
+
+    private int docIdsToLoadFrom;
+
+    private int docIdsToLoadSize;
+
+    private HighlightRequestCache() {
+    }
+
+    /**
+     * Returns the cache of the hits <code>context</code> fetches, creating it on the first call.
+     */
+    public static HighlightRequestCache of(SearchContext context) {
+        HighlightRequestCache requestCache = caches.getIfPresent(context);
+        if (requestCache == null) {
+            requestCache = new HighlightRequestCache();
+            caches.put(context, requestCache);
+        }
+        if (requestCache.docIdsToLoad != context.docIdsToLoad() || requestCache.docIdsToLoadFrom != context.docIdsToLoadFrom()
+                || requestCache.docIdsToLoadSize != context.docIdsToLoadSize()) {
+            // another round of a scroll, whose former round was not released
+            requestCache.clear();
+            requestCache.docIdsToLoad = context.docIdsToLoad();
+            requestCache.docIdsToLoadFrom = context.docIdsToLoadFrom();
+            requestCache.docIdsToLoadSize = context.docIdsToLoadSize();
+        }
+        return requestCache;
+    }
+
+    /**
+     * Drops the cache of <code>context</code>, cancelling its tasks that did not start yet.
+     */
+    public static void release(SearchContext context) {
+        HighlightRequestCache requestCache = caches.asMap().remove(context);
+        if (requestCache != null) {
+            requestCache.clear();
+        }
+    }
+
+    public Object get(String key) {
+        return cache.get(key);
+    }
+
+    public void put(String key, Object value) {
+        cache.put(key, value);
+    }
+
+    public boolean containsKey(String key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * Registers a task of the request, to be cancelled if it did not start when the request is done.
+     */
+    public void addFuture(Future<?> future) {
+        futures.add(future);
+    }
+
+    /**
+     * Cancels the tasks of the request that did not start yet. Running ones are not interrupted, as
+     * interrupting a thread reading an index file closes the file for all the readers of the node.
+     */
+    public void cancel() {
+        for (Future<?> future : futures) {
+            future.cancel(false);
+        }
+        futures.clear();
+    }
+
+    private void clear() {
+        cancel();
+        cache.clear();
+    }
+}
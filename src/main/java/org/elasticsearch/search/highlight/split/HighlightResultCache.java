@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.highlight.HighlightField;
+
+import java.util.Map;
+
+/**
+ * A cache of the final highlighted fields of documents, for requests that repeat the same query with
+ * the same highlight options. Configured with the node settings
+ * <code>split_highlight.result_cache.size</code> and <code>split_highlight.result_cache.expire</code>.
+ */
+public class HighlightResultCache extends SegmentHighlightCache<HighlightResultCache.Key, HighlightField> {
+
+    @Inject
+    public HighlightResultCache(Settings settings) {
+        super(settings, "result_cache");
+    }
+
+    @Override
+    protected long weigh(Key key, HighlightField field) {
+        long weight = 64;
+        for (Text fragment : field.fragments()) {
+            // fragments of the split highlighter are UTF-8 bytes, converting them would copy them
+            weight += 24 + (fragment.hasBytes() ? fragment.bytes().length() : fragment.string().length() * 2);
+        }
+        return weight;
+    }
+
+    public static class Key implements SegmentHighlightCache.SegmentKey {
+
+        private final Object coreKey;
+
+        private final int docId;
+
+        private final String fieldName;
+
+        private final HighlightQueryCache.Key queryKey;
+
+        private final String preTag;
+
+        private final String postTag;
+
+        private final String fragmenter;
+
+        private final int fragmentCharSize;
+
+        private final int numberOfFragments;
+
+        private final boolean scoreOrdered;
+
+        private final Map<String, Object> options;
+
+        public Key(Object coreKey, int docId, String fieldName, HighlightQueryCache.Key queryKey, String preTag, String postTag,
+                   String fragmenter, int fragmentCharSize, int numberOfFragments, boolean scoreOrdered, Map<String, Object> options) {
+            this.coreKey = coreKey;
+            this.docId = docId;
+            this.fieldName = fieldName;
+            this.queryKey = queryKey;
+            this.preTag = preTag;
+            this.postTag = postTag;
+            this.fragmenter = fragmenter;
+            this.fragmentCharSize = fragmentCharSize;
+            this.numberOfFragments = numberOfFragments;
+            this.scoreOrdered = scoreOrdered;
+            this.options = options;
+        }
+
+        @Override
+        public Object coreKey() {
+            return coreKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (docId != key.docId) return false;
+            if (fragmentCharSize != key.fragmentCharSize) return false;
+            if (numberOfFragments != key.numberOfFragments) return false;
+            if (scoreOrdered != key.scoreOrdered) return false;
+            if (coreKey != key.coreKey) return false;
+            if (!fieldName.equals(key.fieldName)) return false;
+            if (!queryKey.equals(key.queryKey)) return false;
+            if (!preTag.equals(key.preTag)) return false;
+            if (!postTag.equals(key.postTag)) return false;
+            if (fragmenter != null ? !fragmenter.equals(key.fragmenter) : key.fragmenter != null) return false;
+            return options != null ? options.equals(key.options) : key.options == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(coreKey);
+            result = 31 * result + docId;
+            result = 31 * result + fieldName.hashCode();
+            result = 31 * result + queryKey.hashCode();
+            result = 31 * result + preTag.hashCode();
+            result = 31 * result + postTag.hashCode();
+            result = 31 * result + (fragmenter != null ? fragmenter.hashCode() : 0);
+            result = 31 * result + fragmentCharSize;
+            result = 31 * result + numberOfFragments;
+            result = 31 * result + (scoreOrdered ? 1 : 0);
+            result = 31 * result + (options != null ? options.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.IndicesLifecycle;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Logs the hit fields that took long to highlight, with their trace, so that the documents that make
+ * a search slow show up and not only its whole fetch phase. The thresholds are index settings, a
+ * negative one, the default, not logging:
+ * <pre>
+ * index.split_highlight.slowlog.threshold.warn: 1s
+ * index.split_highlight.slowlog.threshold.info: 200ms
+ * index.split_highlight.slowlog.threshold.debug: 50ms
+ * </pre>
+ * Entries go to the <code>index.split_highlight.slowlog</code> logger. The thresholds of an index are
+ * dropped once it is closed.
+ */
+public class HighlightSlowLog extends AbstractComponent {
+
+    public static final String THRESHOLD_PREFIX = "index.split_highlight.slowlog.threshold.";
+
+    private static final ESLogger slowLogger = Loggers.getLogger("index.split_highlight.slowlog");
+
+    private final ConcurrentMap<String, Thresholds> thresholds = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public HighlightSlowLog(Settings settings, IndicesLifecycle indicesLifecycle) {
+        super(settings);
+        indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+            @Override
+            public void afterIndexClosed(Index index, boolean delete) {
+                thresholds.remove(index.name());
+            }
+        });
+    }
+
+    /**
+     * Logs the trace of <code>field</code> of the top level <code>docId</code> if it took longer than
+     * a threshold of the index.
+     */
+    public void log(SearchContext context, int docId, String field, HighlightTrace trace) {
+        Thresholds indexThresholds = thresholds(context);
+        long took = trace.totalNanos();
+        // the message is only built when its level is enabled
+        if (indexThresholds.warn >= 0 && took > indexThresholds.warn) {
+            if (slowLogger.isWarnEnabled()) {
+                slowLogger.warn("{}", message(context, docId, field, trace));
+            }
+        } else if (indexThresholds.info >= 0 && took > indexThresholds.info) {
+            if (slowLogger.isInfoEnabled()) {
+                slowLogger.info("{}", message(context, docId, field, trace));
+            }
+        } else if (indexThresholds.debug >= 0 && took > indexThresholds.debug) {
+            if (slowLogger.isDebugEnabled()) {
+                slowLogger.debug("{}", message(context, docId, field, trace));
+            }
+        }
+    }
+
+    private Thresholds thresholds(SearchContext context) {
+        Settings indexSettings = context.indexShard().indexSettings();
+        String index = context.shardTarget().index();
+        Thresholds indexThresholds = thresholds.get(index);
+        // an index created again under the same name comes with other settings
+        if (indexThresholds == null || indexThresholds.settings != indexSettings) {
+            indexThresholds = new Thresholds(indexSettings);
+            thresholds.put(index, indexThresholds);
+        }
+        return indexThresholds;
+    }
+
+    private static String message(SearchContext context, int docId, String field, HighlightTrace trace) {
+        StringBuilder message = new StringBuilder();
+        message.append('[').append(context.shardTarget().index()).append("][").append(context.shardTarget().shardId()).append("] ");
+        message.append("took[").append(TimeValue.timeValueNanos(trace.totalNanos())).append("], ");
+        message.append("took_millis[").append(TimeValue.nsecToMSec(trace.totalNanos())).append("], ");
+        message.append("doc[").append(docId).append("], ");
+        message.append("field[").append(field).append("], ");
+        message.append("path[").append(trace.path()).append("], ");
+        message.append("source[").append(trace.source()).append("], ");
+        message.append("value_chars[").append(trace.valueChars()).append("], ");
+        message.append("tokens[").append(trace.tokens()).append("], ");
+        message.append("phases[");
+        boolean first = true;
+        for (HighlightTrace.Phase phase : HighlightTrace.Phase.values()) {
+            if (trace.nanos(phase) > 0) {
+                if (!first) {
+                    message.append(", ");
+                }
+                message.append(phase.phaseName()).append('=').append(TimeValue.timeValueNanos(trace.nanos(phase)));
+                first = false;
+            }
+        }
+        message.append("], ");
+        message.append("query[").append(context.parsedQuery().query()).append(']');
+        return message.toString();
+    }
+
+    private static class Thresholds {
+
+        final Settings settings;
+
+        final long warn;
+
+        final long info;
+
+        final long debug;
+
+        Thresholds(Settings settings) {
+            this.settings = settings;
+            this.warn = settings.getAsTime(THRESHOLD_PREFIX + "warn", TimeValue.timeValueNanos(-1)).nanos();
+            this.info = settings.getAsTime(THRESHOLD_PREFIX + "info", TimeValue.timeValueNanos(-1)).nanos();
+            this.debug = settings.getAsTime(THRESHOLD_PREFIX + "debug", TimeValue.timeValueNanos(-1)).nanos();
+        }
+    }
+}
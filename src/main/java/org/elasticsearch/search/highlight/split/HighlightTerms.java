@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lucene.search.XFilteredQuery;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The weighted terms of a query that can be highlighted without looking at term positions, that is
+ * queries made of term queries only, possibly nested in boolean, dis max, filtered or constant score
+ * queries.
+ */
+public class HighlightTerms {
+
+    private final String[] terms;
+
+    private final BytesRef[] bytes;
+
+    private final float[] weights;
+
+    private HighlightTerms(Map<String, Float> weightedTerms) {
+        int size = weightedTerms.size();
+        this.terms = new String[size];
+        this.bytes = new BytesRef[size];
+        this.weights = new float[size];
+        int ord = 0;
+        for (Map.Entry<String, Float> entry : weightedTerms.entrySet()) {
+            terms[ord] = entry.getKey();
+            bytes[ord] = new BytesRef(entry.getKey());
+            weights[ord] = entry.getValue();
+            ord++;
+        }
+    }
+
+    /**
+     * Extracts the terms of <code>query</code> on <code>field</code>, or of all fields when
+     * <code>field</code> is <tt>null</tt>. Terms are keyed by their text, keeping the heaviest weight.
+     * Returns <tt>null</tt> when the query holds anything but terms.
+     */
+    public static HighlightTerms extract(Query query, String field) {
+        Map<String, Float> weightedTerms = new LinkedHashMap<String, Float>();
+        if (!extract(query, field, 1f, weightedTerms)) {
+            return null;
+        }
+        return new HighlightTerms(weightedTerms);
+    }
+
+    private static boolean extract(Query query, String field, float boost, Map<String, Float> weightedTerms) {
+        if (query == null) {
+            return true;
+        }
+        boost *= query.getBoost();
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            if (field == null || field.equals(term.field())) {
+                Float weight = weightedTerms.get(term.text());
+                if (weight == null || weight < boost) {
+                    weightedTerms.put(term.text(), boost);
+                }
+            }
+            return true;
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (clause.isProhibited()) {
+                    continue;
+                }
+                if (!extract(clause.getQuery(), field, boost, weightedTerms)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof DisjunctionMaxQuery) {
+            for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts()) {
+                if (!extract(disjunct, field, boost, weightedTerms)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof FilteredQuery) {
+            return extract(((FilteredQuery) query).getQuery(), field, boost, weightedTerms);
+        } else if (query instanceof XFilteredQuery) {
+            return extract(((XFilteredQuery) query).getQuery(), field, boost, weightedTerms);
+        } else if (query instanceof ConstantScoreQuery) {
+            return extract(((ConstantScoreQuery) query).getQuery(), field, boost, weightedTerms);
+        }
+        return false;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public String term(int ord) {
+        return terms[ord];
+    }
+
+    public BytesRef bytes(int ord) {
+        return bytes[ord];
+    }
+
+    public float weight(int ord) {
+        return weights[ord];
+    }
+
+    /**
+     * Returns whether any of the terms occurs in <code>field</code> of <code>docId</code>, looking the
+     * terms up in the terms index and advancing their postings to the document, without loading it.
+     */
+    public boolean occurIn(AtomicReader reader, int docId, String field) throws IOException {
+        Terms postings = reader.terms(field);
+        if (postings == null) {
+            return false;
+        }
+        TermsEnum termsEnum = postings.iterator(null);
+        DocsEnum docsEnum = null;
+        for (int ord = 0; ord < terms.length; ord++) {
+            if (!termsEnum.seekExact(bytes[ord], false)) {
+                continue;
+            }
+            docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_NONE);
+            if (docsEnum != null && docsEnum.advance(docId) == docId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
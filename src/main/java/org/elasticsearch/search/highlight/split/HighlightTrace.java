@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.index.analysis.split.SplitTokenizer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What highlighting a field of a hit took: the time spent in each phase, the chars of its values,
+ * the tokens and their chars written and the fragments considered, along with where the values were
+ * read from, the scorer and the path that highlighted them. A trace is filled by a single thread.
+ */
+public class HighlightTrace {
+
+    public static enum Phase {
+        LOAD_STORED("load_stored"),
+        LOAD_SOURCE("load_source"),
+        ANALYSIS("analysis"),
+        SCORING("scoring"),
+        MARKUP("markup"),
+        SERIALIZATION("serialization");
+
+        private final String name;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String phaseName() {
+            return name;
+        }
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+
+    private final long[] tokenCounts = new long[SplitTokenizer.TOKEN_TYPES.length];
+
+    private long valueChars;
+
+    private long tokenChars;
+
+    private long fragments;
+
+    private String source;
+
+    private String scorer;
+
+    private String path;
+
+    private boolean traced;
+
+    /**
+     * Adds the time elapsed since <code>startNanos</code>, as given by {@link System#nanoTime()}, to
+     * <code>phase</code>.
+     */
+    public void add(Phase phase, long startNanos) {
+        nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+        traced = true;
+    }
+
+    public void values(List<Object> values) {
+        for (Object value : values) {
+            valueChars += value.toString().length();
+        }
+    }
+
+    public void token(int type, int length) {
+        tokenCounts[type]++;
+        tokenChars += length;
+    }
+
+    public void fragments(int count) {
+        fragments += count;
+    }
+
+    /**
+     * Where the values were read from, <tt>stored</tt> or <tt>source</tt>.
+     */
+    public void source(String source) {
+        this.source = source;
+    }
+
+    public void scorer(String scorer) {
+        this.scorer = scorer;
+    }
+
+    /**
+     * How the values were highlighted, the last path set winning.
+     */
+    public void path(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Adds what <code>other</code> traced, once its thread is done with it.
+     */
+    public void add(HighlightTrace other) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+        }
+        for (int i = 0; i < tokenCounts.length; i++) {
+            tokenCounts[i] += other.tokenCounts[i];
+        }
+        valueChars += other.valueChars;
+        tokenChars += other.tokenChars;
+        fragments += other.fragments;
+        if (other.source != null) {
+            source = other.source;
+        }
+        if (other.scorer != null) {
+            scorer = other.scorer;
+        }
+        if (other.path != null) {
+            path = other.path;
+        }
+        traced |= other.traced;
+    }
+
+    /**
+     * Whether anything was traced, a result cache hit not being.
+     */
+    public boolean traced() {
+        return traced;
+    }
+
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long totalNanos() {
+        long total = 0;
+        for (long phaseNanos : nanos) {
+            total += phaseNanos;
+        }
+        return total;
+    }
+
+    /**
+     * The count of tokens of <code>type</code>, one of the {@link SplitTokenizer} token types.
+     */
+    public long tokens(int type) {
+        return tokenCounts[type];
+    }
+
+    public long tokens() {
+        long total = 0;
+        for (long count : tokenCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long valueChars() {
+        return valueChars;
+    }
+
+    public long tokenChars() {
+        return tokenChars;
+    }
+
+    public long fragments() {
+        return fragments;
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public String scorer() {
+        return scorer;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    /**
+     * The trace as a map, to be returned with the hit.
+     */
+    public Map<String, Object> toMap(String field) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("field", field);
+        map.put("path", path);
+        if (scorer != null) {
+            map.put("scorer", scorer);
+        }
+        if (source != null) {
+            map.put("source", source);
+        }
+        map.put("value_chars", valueChars);
+        map.put("tokens", tokens());
+        map.put("token_chars", tokenChars);
+        map.put("fragments", fragments);
+        Map<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (Phase phase : Phase.values()) {
+            if (nanos[phase.ordinal()] > 0) {
+                phases.put(phase.phaseName(), nanos[phase.ordinal()]);
+            }
+        }
+        map.put("nanos", phases);
+        map.put("total_nanos", totalNanos());
+        return map;
+    }
+}
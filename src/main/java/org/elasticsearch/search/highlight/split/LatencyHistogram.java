@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies, in buckets of powers of two microseconds: bucket <tt>i</tt>
+ * counts the latencies under <tt>2^i</tt> microseconds that the previous bucket does not, the last
+ * bucket counting all the longer ones.
+ */
+public class LatencyHistogram implements ToXContent {
+
+    public static final int BUCKETS = 22;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        totalNanos.addAndGet(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public long totalNanos() {
+        return totalNanos.get();
+    }
+
+    public long bucket(int i) {
+        return buckets.get(i);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("count", count());
+        builder.field("time", TimeValue.timeValueNanos(totalNanos()).toString());
+        builder.field("time_in_nanos", totalNanos());
+        builder.startObject("histogram");
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = buckets.get(i);
+            if (count > 0) {
+                builder.field(i == BUCKETS - 1 ? "inf" : "lt_" + (1L << i) + "us", count);
+            }
+        }
+        builder.endObject();
+        builder.endObject();
+        return builder;
+    }
+}
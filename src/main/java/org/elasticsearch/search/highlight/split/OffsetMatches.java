@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.util.Arrays;
+
+/**
+ * The offsets of the query terms in a field of one document, across all its values, together with
+ * the ordinal of the matching term in {@link HighlightTerms}.
+ */
+public class OffsetMatches {
+
+    private int[] starts = new int[8];
+
+    private int[] ends = new int[8];
+
+    private int[] ords = new int[8];
+
+    private int size;
+
+    public void add(int start, int end, int ord) {
+        if (size == starts.length) {
+            int newSize = ArrayUtil.oversize(size + 1, 4);
+            starts = Arrays.copyOf(starts, newSize);
+            ends = Arrays.copyOf(ends, newSize);
+            ords = Arrays.copyOf(ords, newSize);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        ords[size] = ord;
+        size++;
+    }
+
+    /**
+     * Sorts the matches by start offset, matches are added term by term.
+     */
+    public void sort() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) starts[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sortedStarts = new int[starts.length];
+        int[] sortedEnds = new int[ends.length];
+        int[] sortedOrds = new int[ords.length];
+        for (int i = 0; i < size; i++) {
+            int index = (int) keys[i];
+            sortedStarts[i] = starts[index];
+            sortedEnds[i] = ends[index];
+            sortedOrds[i] = ords[index];
+        }
+        starts = sortedStarts;
+        ends = sortedEnds;
+        ords = sortedOrds;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int end(int index) {
+        return ends[index];
+    }
+
+    public int ord(int index) {
+        return ords[index];
+    }
+}
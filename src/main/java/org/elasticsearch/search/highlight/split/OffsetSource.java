@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.AtomicReader;
+
+import java.io.IOException;
+
+/**
+ * Where the offsets of the query terms in a document are read from, when they are indexed.
+ */
+public interface OffsetSource {
+
+    /**
+     * Adds the offsets of <code>terms</code> in <code>field</code> of <code>docId</code> to
+     * <code>matches</code>, sorted. Returns <tt>false</tt> when the offsets are not available for the
+     * document, in which case the value has to be analyzed.
+     */
+    boolean load(AtomicReader reader, int docId, String field, HighlightTerms terms, OffsetMatches matches) throws IOException;
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds split fragments from offsets of the query terms that are already known, so the value is
+ * never analyzed: fragments are chosen from the offsets alone and only the chosen ones are scanned
+ * with the split grammar to place the markup.
+ * <p/>
+ * A fragment covers <code>fragmentSize</code> chars, its end widened to the end of the word it falls
+ * in, the next fragment starting there, so that a word crossing the boundary only shows in one of
+ * them. It scores the sum of the weights of the distinct terms it holds. A <code>fragmentSize</code>
+ * of 0 highlights the whole value as a single fragment. The fragments being fixed windows, there is
+ * no fragmenter: a request asking for one gets the analysis instead.
+ */
+public class OffsetSplitHighlighter {
+
+    private final HighlightTerms terms;
+
+    private final SplitMarkup markup;
+
+    private final int fragmentSize;
+
+    private int[] highlightStarts = new int[8];
+
+    private int[] highlightEnds = new int[8];
+
+    public OffsetSplitHighlighter(HighlightTerms terms, SplitMarkup markup, int fragmentSize) {
+        this.terms = terms;
+        this.markup = markup;
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Returns the best <code>maxNumFragments</code> fragments of <code>text</code>, best first.
+     * <code>matches</code> holds the offsets of the whole field, <code>text</code> is the value
+     * starting at <code>offset</code>.
+     */
+    public SplitFragment[] getBestFragments(String text, int offset, OffsetMatches matches, int maxNumFragments) throws IOException {
+        int length = text.length();
+        int count = 0;
+        SplitFragmentHighlighter.FragmentQueue fragQueue = new SplitFragmentHighlighter.FragmentQueue(maxNumFragments);
+        boolean[] seen = new boolean[terms.size()];
+        int[] scoredWindows = new int[4];
+        int numScoredWindows = 0;
+        int window = -1;
+        float score = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            int start = matches.start(i) - offset;
+            if (start < 0) {
+                continue;
+            }
+            if (start >= length) {
+                break;
+            }
+            int end = Math.min(matches.end(i) - offset, length);
+            if (count > 0 && start < highlightEnds[count - 1]) {
+                highlightEnds[count - 1] = Math.max(highlightEnds[count - 1], end);
+            } else {
+                if (count == highlightStarts.length) {
+                    int newSize = ArrayUtil.oversize(count + 1, 4);
+                    highlightStarts = Arrays.copyOf(highlightStarts, newSize);
+                    highlightEnds = Arrays.copyOf(highlightEnds, newSize);
+                }
+                highlightStarts[count] = start;
+                highlightEnds[count] = end;
+                count++;
+            }
+
+            int w = window(text, start);
+            if (w != window) {
+                if (window >= 0) {
+                    fragQueue.insert(newFragment(text, window, score));
+                    scoredWindows = ArrayUtil.grow(scoredWindows, numScoredWindows + 1);
+                    scoredWindows[numScoredWindows++] = window;
+                }
+                window = w;
+                score = 0;
+                Arrays.fill(seen, false);
+            }
+            if (!seen[matches.ord(i)]) {
+                seen[matches.ord(i)] = true;
+                score += terms.weight(matches.ord(i));
+            }
+        }
+        if (window >= 0) {
+            fragQueue.insert(newFragment(text, window, score));
+            scoredWindows = ArrayUtil.grow(scoredWindows, numScoredWindows + 1);
+            scoredWindows[numScoredWindows++] = window;
+        }
+
+        // fragments without any match are returned as well, leading ones first
+        int numWindows = fragmentSize > 0 ? Math.max(1, (length + fragmentSize - 1) / fragmentSize) : 1;
+        for (int w = 0, scored = 0, added = 0; w < numWindows && added < maxNumFragments; w++) {
+            while (scored < numScoredWindows && scoredWindows[scored] < w) {
+                scored++;
+            }
+            if (scored < numScoredWindows && scoredWindows[scored] == w) {
+                continue;
+            }
+            fragQueue.insert(newFragment(text, w, 0));
+            added++;
+        }
+
+        markup.fragmentsConsidered(fragQueue.considered());
+        SplitFragment[] frags = fragQueue.bestFirst();
+        for (SplitFragment frag : frags) {
+            markup.appendRange(frag, text, frag.getTextStartPos(), frag.getTextEndPos(), highlightStarts, highlightEnds, count);
+        }
+        return frags;
+    }
+
+    /**
+     * The window holding <code>pos</code>, the end of a window being widened to the end of its word.
+     */
+    private int window(String text, int pos) {
+        if (fragmentSize <= 0) {
+            return 0;
+        }
+        int window = pos / fragmentSize;
+        if (window > 0 && pos < SplitMarkup.wordEnd(text, window * fragmentSize)) {
+            window--;
+        }
+        return window;
+    }
+
+    private SplitFragment newFragment(String text, int window, float score) {
+        int start = 0;
+        int end = text.length();
+        if (fragmentSize > 0) {
+            // the previous window ends where this one starts
+            start = SplitMarkup.wordEnd(text, Math.min(window * fragmentSize, end));
+            end = SplitMarkup.wordEnd(text, Math.min((window + 1) * fragmentSize, end));
+        }
+        SplitFragment fragment = new SplitFragment(window, start);
+        fragment.setTextEndPos(end);
+        fragment.setScore(score);
+        return fragment;
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.search.highlight.Scorer;
+import org.apache.lucene.search.highlight.TextFragment;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.index.analysis.split.SplitTokenizer;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Scores tokens against {@link HighlightPhrases}, matching the phrases on the token positions. The
+ * tokens are read ahead of the highlighter only as far as the longest phrase spans: a token is handed
+ * over once the phrases that may hold it were matched, so the value is streamed like with the other
+ * scorers and the highlighter can stop analyzing it at any point. Delimiters do not take positions,
+ * as they are not indexed, but the positions the tokenizer skips for over long tokens are kept. A
+ * fragment scores the weights of the distinct terms it holds, like
+ * {@link org.apache.lucene.search.highlight.QueryScorer}.
+ */
+public class PhraseScorer implements Scorer {
+
+    private final HighlightPhrases phrases;
+
+    // the positions a phrase spans after its first one
+    private final int maxSpan;
+
+    private final BitSet foundTerms = new BitSet();
+
+    // the tokens read ahead, from the one the highlighter got last
+    private AttributeSource.State[] states = new AttributeSource.State[16];
+
+    private int[] termIds = new int[16];
+
+    private int[] positions = new int[16];
+
+    private float[] scores = new float[16];
+
+    private int[] matched = new int[4];
+
+    private int tokenCount;
+
+    private int current;
+
+    // the next token phrases are matched from
+    private int nextStart;
+
+    private int position;
+
+    private boolean exhausted;
+
+    private CharTermAttribute termAtt;
+
+    private PositionIncrementAttribute posIncAtt;
+
+    private TypeAttribute typeAtt;
+
+    private float totalScore;
+
+    public PhraseScorer(HighlightPhrases phrases) {
+        this.phrases = phrases;
+        int maxSpan = 0;
+        for (int phrase = 0; phrase < phrases.size(); phrase++) {
+            int[] phrasePositions = phrases.positions(phrase);
+            maxSpan = Math.max(maxSpan, phrasePositions[phrasePositions.length - 1]);
+        }
+        this.maxSpan = maxSpan;
+    }
+
+    @Override
+    public TokenStream init(TokenStream tokenStream) throws IOException {
+        termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+        posIncAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
+        typeAtt = tokenStream.addAttribute(TypeAttribute.class);
+        tokenCount = 0;
+        current = -1;
+        nextStart = 0;
+        position = -1;
+        exhausted = false;
+        return new Lookahead(tokenStream);
+    }
+
+    /**
+     * Matches the phrases starting at the tokens up to <code>upTo</code>, the tokens being read far
+     * enough for them.
+     */
+    private void matchStarts(int upTo) {
+        while (nextStart < tokenCount && positions[nextStart] <= upTo) {
+            int termId = termIds[nextStart];
+            if (termId >= 0) {
+                for (int phrase = 0; phrase < phrases.size(); phrase++) {
+                    if (phrases.terms(phrase)[0] == termId) {
+                        match(phrase, nextStart);
+                    }
+                }
+            }
+            nextStart++;
+        }
+    }
+
+    /**
+     * Scores the tokens of <code>phrase</code> when it occurs from the token <code>start</code> on.
+     */
+    private void match(int phrase, int start) {
+        int[] terms = phrases.terms(phrase);
+        int[] phrasePositions = phrases.positions(phrase);
+        if (matched.length < terms.length) {
+            matched = new int[ArrayUtil.oversize(terms.length, RamUsageEstimator.NUM_BYTES_INT)];
+        }
+        matched[0] = start;
+        int next = start + 1;
+        for (int i = 1; i < terms.length; i++) {
+            int target = positions[start] + phrasePositions[i];
+            int found = -1;
+            for (int token = next; token < tokenCount && positions[token] <= target; token++) {
+                if (positions[token] == target && termIds[token] == terms[i]) {
+                    found = token;
+                    break;
+                }
+            }
+            if (found < 0) {
+                return;
+            }
+            matched[i] = found;
+            next = found + 1;
+        }
+        float weight = phrases.weight(phrase);
+        for (int i = 0; i < terms.length; i++) {
+            scores[matched[i]] = Math.max(scores[matched[i]], weight);
+        }
+    }
+
+    @Override
+    public void startFragment(TextFragment newFragment) {
+        foundTerms.clear();
+        totalScore = 0;
+    }
+
+    @Override
+    public float getTokenScore() {
+        if (current < 0 || current >= tokenCount) {
+            return 0;
+        }
+        float score = scores[current];
+        if (score > 0 && !foundTerms.get(termIds[current])) {
+            foundTerms.set(termIds[current]);
+            totalScore += score;
+        }
+        return score;
+    }
+
+    @Override
+    public float getFragmentScore() {
+        return totalScore;
+    }
+
+    /**
+     * Hands the tokens over to the highlighter once the phrases that may hold them were matched.
+     */
+    private class Lookahead extends TokenFilter {
+
+        Lookahead(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (current + 1 == tokenCount && !readToken()) {
+                return false;
+            }
+            current++;
+            while (!exhausted && positions[tokenCount - 1] < positions[current] + maxSpan) {
+                readToken();
+            }
+            matchStarts(positions[current]);
+            restoreState(states[current]);
+            return true;
+        }
+
+        private boolean readToken() throws IOException {
+            if (exhausted || !input.incrementToken()) {
+                exhausted = true;
+                return false;
+            }
+            if (tokenCount == states.length) {
+                if (current > 0) {
+                    // the tokens handed over already are not needed anymore
+                    int kept = tokenCount - current;
+                    System.arraycopy(states, current, states, 0, kept);
+                    System.arraycopy(termIds, current, termIds, 0, kept);
+                    System.arraycopy(positions, current, positions, 0, kept);
+                    System.arraycopy(scores, current, scores, 0, kept);
+                    nextStart -= current;
+                    tokenCount = kept;
+                    current = 0;
+                } else {
+                    termIds = ArrayUtil.grow(termIds);
+                    AttributeSource.State[] newStates = new AttributeSource.State[termIds.length];
+                    System.arraycopy(states, 0, newStates, 0, tokenCount);
+                    states = newStates;
+                    positions = ArrayUtil.grow(positions, termIds.length);
+                    scores = ArrayUtil.grow(scores, termIds.length);
+                }
+            }
+            if (SplitMarkup.tokenType(typeAtt.type()) == SplitTokenizer.SPLIT) {
+                position += posIncAtt.getPositionIncrement() - 1;
+                termIds[tokenCount] = -1;
+            } else {
+                position += posIncAtt.getPositionIncrement();
+                termIds[tokenCount] = phrases.termId(termAtt.buffer(), termAtt.length());
+            }
+            positions[tokenCount] = position;
+            scores[tokenCount] = 0;
+            states[tokenCount] = captureState();
+            tokenCount++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.SegmentReader;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A {@link HighlightCache} of what was computed for documents of a segment. Entries are keyed by the
+ * core of the segment and dropped once that segment is closed, after a merge for instance. Only
+ * documents of {@link SegmentReader}s are cached, as they tell when they are closed.
+ */
+public abstract class SegmentHighlightCache<K extends SegmentHighlightCache.SegmentKey, V> extends HighlightCache<K, V> {
+
+    private final Set<Object> registeredCores = ConcurrentCollections.newConcurrentSet();
+
+    private final SegmentReader.CoreClosedListener invalidator = new SegmentReader.CoreClosedListener() {
+        @Override
+        public void onClose(SegmentReader owner) {
+            invalidate(owner.getCoreCacheKey());
+        }
+    };
+
+    protected SegmentHighlightCache(Settings settings, String name) {
+        super(settings, name);
+    }
+
+    /**
+     * Whether what was computed for documents of <code>reader</code> can be cached.
+     */
+    public boolean cacheable(AtomicReader reader) {
+        return enabled() && reader instanceof SegmentReader;
+    }
+
+    public void put(AtomicReader reader, K key, V value) {
+        if (registeredCores.add(reader.getCoreCacheKey())) {
+            ((SegmentReader) reader).addCoreClosedListener(invalidator);
+        }
+        put(key, value);
+    }
+
+    private void invalidate(Object coreKey) {
+        registeredCores.remove(coreKey);
+        for (Iterator<K> it = keys(); it.hasNext(); ) {
+            if (it.next().coreKey() == coreKey) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The key of an entry computed for a document of a segment.
+     */
+    public interface SegmentKey {
+
+        /**
+         * The core cache key of the segment.
+         */
+        Object coreKey();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link SplitTokens} of the values analyzed by a request, shared by the highlighted fields of a
+ * hit that read the same source path, like the sub-fields of a multi_field. The split grammar only
+ * depends on the max token length, so a value is scanned once whatever the number of fields that
+ * highlight it. Kept in the {@link HighlightRequestCache}, and safe to use from the
+ * {@link HighlightExecutor} tasks of several fields.
+ */
+public class SharedSplitTokens {
+
+    private final ConcurrentMap<Key, SplitTokens> tokens = ConcurrentCollections.newConcurrentMap();
+
+    /**
+     * The shared tokens of the values of <code>docId</code> of the segment with <code>coreKey</code>,
+     * or <tt>null</tt> if one of them was not analyzed yet.
+     */
+    public SplitTokens[] get(Object coreKey, int docId, int maxTokenLength, List<Object> values) {
+        SplitTokens[] valuesTokens = new SplitTokens[values.size()];
+        for (int i = 0; i < valuesTokens.length; i++) {
+            valuesTokens[i] = tokens.get(new Key(coreKey, docId, maxTokenLength, values.get(i).toString()));
+            if (valuesTokens[i] == null) {
+                return null;
+            }
+        }
+        return valuesTokens;
+    }
+
+    public void put(Object coreKey, int docId, int maxTokenLength, List<Object> values, SplitTokens[] valuesTokens) {
+        for (int i = 0; i < valuesTokens.length; i++) {
+            tokens.putIfAbsent(new Key(coreKey, docId, maxTokenLength, values.get(i).toString()), valuesTokens[i]);
+        }
+    }
+
+    /**
+     * The number of shared values.
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    private static class Key {
+
+        private final Object coreKey;
+
+        private final int docId;
+
+        private final int maxTokenLength;
+
+        private final String text;
+
+        Key(Object coreKey, int docId, int maxTokenLength, String text) {
+            this.coreKey = coreKey;
+            this.docId = docId;
+            this.maxTokenLength = maxTokenLength;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            if (docId != key.docId) return false;
+            if (maxTokenLength != key.maxTokenLength) return false;
+            if (coreKey != key.coreKey) return false;
+            return text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = coreKey.hashCode();
+            result = 31 * result + docId;
+            result = 31 * result + maxTokenLength;
+            result = 31 * result + text.hashCode();
+            return result;
+        }
+    }
+}
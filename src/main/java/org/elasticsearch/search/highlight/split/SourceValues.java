@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The raw values of some paths of a document <code>_source</code>, extracted while streaming over it:
+ * the subtrees that do not lead to one of the paths are skipped by the parser, nothing else than the
+ * requested values is materialized. Values are extracted like
+ * {@link org.elasticsearch.common.xcontent.support.XContentMapValues#extractRawValues(String, java.util.Map)}
+ * does, arrays being flattened.
+ */
+public class SourceValues {
+
+    private final int docId;
+
+    private final Set<String> paths;
+
+    private final Map<String, List<Object>> values = new HashMap<String, List<Object>>();
+
+    private SourceValues(int docId, Set<String> paths) {
+        this.docId = docId;
+        this.paths = paths;
+    }
+
+    /**
+     * Extracts the values of the paths from the <code>source</code> of <code>docId</code> in a single
+     * pass, a <tt>null</tt> source having no values.
+     */
+    public static SourceValues extract(int docId, BytesReference source, Set<String> paths) throws IOException {
+        SourceValues sourceValues = new SourceValues(docId, paths);
+        if (source == null) {
+            return sourceValues;
+        }
+        XContentParser parser = XContentHelper.createParser(source);
+        try {
+            if (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+                sourceValues.extractObject(parser, "");
+            }
+        } finally {
+            parser.close();
+        }
+        return sourceValues;
+    }
+
+    public int docId() {
+        return docId;
+    }
+
+    public Set<String> paths() {
+        return paths;
+    }
+
+    /**
+     * The values of <code>path</code>, empty when the source does not have any.
+     */
+    public List<Object> get(String path) {
+        List<Object> list = values.get(path);
+        return list == null ? new ArrayList<Object>(0) : list;
+    }
+
+    private void extractObject(XContentParser parser, String prefix) throws IOException {
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token != XContentParser.Token.FIELD_NAME) {
+                continue;
+            }
+            String path = prefix.isEmpty() ? parser.currentName() : prefix + '.' + parser.currentName();
+            parser.nextToken();
+            if (paths.contains(path) || leadsToPath(path)) {
+                extractValue(parser, path);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void extractValue(XContentParser parser, String path) throws IOException {
+        XContentParser.Token token = parser.currentToken();
+        if (token == XContentParser.Token.START_OBJECT) {
+            extractObject(parser, path);
+        } else if (token == XContentParser.Token.START_ARRAY) {
+            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                extractValue(parser, path);
+            }
+        } else if (token != XContentParser.Token.VALUE_NULL && paths.contains(path)) {
+            List<Object> list = values.get(path);
+            if (list == null) {
+                list = new ArrayList<Object>(1);
+                values.put(path, list);
+            }
+            if (token == XContentParser.Token.VALUE_NUMBER) {
+                list.add(parser.numberValue());
+            } else if (token == XContentParser.Token.VALUE_BOOLEAN) {
+                list.add(parser.booleanValue());
+            } else {
+                list.add(parser.text());
+            }
+        }
+    }
+
+    private boolean leadsToPath(String path) {
+        for (String candidate : paths) {
+            if (candidate.length() > path.length() && candidate.startsWith(path) && candidate.charAt(path.length()) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
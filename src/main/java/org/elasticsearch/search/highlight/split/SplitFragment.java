@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * A fragment whose text already carries the split markup. When the markup is written as spans, the text
+ * is kept as it is and the fragment renders as its spans, a <code>|</code>, then its text. Spans are
+ * written in text order as a kind followed by a length, the kind being <code>h</code> for a highlighted
+ * token, <code>w</code> for a word, <code>d</code> for delimiters, adjacent delimiters sharing a span,
+ * and <code>p</code> for text between spans, like stop words. The text following the last span has
+ * none: <code>w4d1h3|dong hua</code>.
+ */
+public class SplitFragment {
+
+    public static final int HIGHLIGHT_SPAN = 0;
+
+    public static final int WORD_SPAN = 1;
+
+    public static final int DELIMITER_SPAN = 2;
+
+    private static final char[] SPAN_KINDS = { 'h', 'w', 'd' };
+
+    private static final char PLAIN_KIND = 'p';
+
+    private final StringBuilder markup = new StringBuilder();
+
+    private int[] spans;
+
+    private int spanCount;
+
+    private final int fragNum;
+
+    private int textStartPos;
+
+    private int textEndPos;
+
+    private float score;
+
+    public SplitFragment(int fragNum, int textStartPos) {
+        this.fragNum = fragNum;
+        this.textStartPos = textStartPos;
+        this.textEndPos = textStartPos;
+    }
+
+    public StringBuilder markup() {
+        return markup;
+    }
+
+    /**
+     * Renders this fragment as spans, even if it ends up without any.
+     */
+    public void useSpans() {
+        if (spans == null) {
+            spans = new int[3 * 8];
+        }
+    }
+
+    /**
+     * Adds a span of <code>kind</code> over the text between <code>start</code> and <code>end</code>, a
+     * delimiter following another one extending its span.
+     */
+    public void addSpan(int start, int end, int kind) {
+        useSpans();
+        if (kind == DELIMITER_SPAN && spanCount > 0) {
+            int last = 3 * (spanCount - 1);
+            if (spans[last + 1] == start && spans[last + 2] == kind) {
+                spans[last + 1] = end;
+                return;
+            }
+        }
+        if (3 * (spanCount + 1) > spans.length) {
+            spans = ArrayUtil.grow(spans, 3 * (spanCount + 1));
+        }
+        int next = 3 * spanCount;
+        spans[next] = start;
+        spans[next + 1] = end;
+        spans[next + 2] = kind;
+        spanCount++;
+    }
+
+    /**
+     * The number of spans, whose start, end and kind are given by <code>spanStart(i)</code>,
+     * <code>spanEnd(i)</code> and <code>spanKind(i)</code>.
+     */
+    public int spanCount() {
+        return spanCount;
+    }
+
+    public int spanStart(int i) {
+        return spans[3 * i];
+    }
+
+    public int spanEnd(int i) {
+        return spans[3 * i + 1];
+    }
+
+    public int spanKind(int i) {
+        return spans[3 * i + 2];
+    }
+
+    public int getFragNum() {
+        return fragNum;
+    }
+
+    public int getTextStartPos() {
+        return textStartPos;
+    }
+
+    public int getTextEndPos() {
+        return textEndPos;
+    }
+
+    public void setTextEndPos(int textEndPos) {
+        this.textEndPos = textEndPos;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    public void setScore(float score) {
+        this.score = score;
+    }
+
+    /**
+     * The header {@link #toString()} puts before the markup when it is written as spans, or
+     * <tt>null</tt>.
+     */
+    public CharSequence spanHeader() {
+        if (spans == null) {
+            return null;
+        }
+        StringBuilder header = new StringBuilder(3 * spanCount + 1);
+        appendSpans(header);
+        return header;
+    }
+
+    private void appendSpans(StringBuilder rendered) {
+        int end = 0;
+        for (int i = 0; i < spanCount; i++) {
+            if (spanStart(i) > end) {
+                rendered.append(PLAIN_KIND).append(spanStart(i) - end);
+            }
+            rendered.append(SPAN_KINDS[spanKind(i)]).append(spanEnd(i) - spanStart(i));
+            end = spanEnd(i);
+        }
+        rendered.append('|');
+    }
+
+    @Override
+    public String toString() {
+        if (spans == null) {
+            return markup.toString();
+        }
+        StringBuilder rendered = new StringBuilder(markup.length() + 3 * spanCount + 1);
+        appendSpans(rendered);
+        return rendered.append(markup).toString();
+    }
+}
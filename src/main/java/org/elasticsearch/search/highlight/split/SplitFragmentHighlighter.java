@@ -0,0 +1,233 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.search.highlight.Fragmenter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.Scorer;
+import org.apache.lucene.util.PriorityQueue;
+import org.elasticsearch.common.io.FastStringReader;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+
+import java.io.IOException;
+
+/**
+ * Highlights a value in a single pass over its split tokens: each token is scored against the
+ * query and its markup (highlight tags, <code>&lt;i&gt;</code> word wrapping or an escaped delimiter)
+ * is written straight into the fragment buffer, so the fragments never have to be split again.
+ */
+public class SplitFragmentHighlighter {
+
+    private static final int[] NO_SPANS = new int[0];
+
+    private final Scorer fragmentScorer;
+
+    private final Fragmenter textFragmenter;
+
+    private final SplitAnalyzer analyzer;
+
+    private final SplitMarkup markup;
+
+    private int maxAnalyzedChars;
+
+    public SplitFragmentHighlighter(Scorer fragmentScorer, Fragmenter textFragmenter, SplitMarkup markup, SplitAnalyzer analyzer) {
+        this.fragmentScorer = fragmentScorer;
+        this.textFragmenter = textFragmenter;
+        this.markup = markup;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Stops the analysis of a value once <code>maxAnalyzedChars</code> chars of it were analyzed,
+     * keeping the fragments scored so far, instead of tokenizing huge values up to their end, however
+     * few fragments matched. <tt>0</tt>, the default, analyzes values entirely.
+     */
+    public void setMaxAnalyzedChars(int maxAnalyzedChars) {
+        this.maxAnalyzedChars = maxAnalyzedChars;
+    }
+
+    /**
+     * Returns the best <code>maxNumFragments</code> fragments of <code>text</code>, best first.
+     */
+    public SplitFragment[] getBestFragments(String text, int maxNumFragments) throws IOException {
+        FragmentQueue fragQueue = new FragmentQueue(maxNumFragments);
+        highlight(text, null, 0, text.length(), 0, 0, fragQueue);
+        return bestFirst(fragQueue);
+    }
+
+    /**
+     * Returns the best <code>maxNumFragments</code> fragments of <code>text</code>, best first,
+     * replaying its already scanned <code>tokens</code> instead of analyzing it.
+     */
+    public SplitFragment[] getBestFragments(String text, SplitTokens tokens, int maxNumFragments) throws IOException {
+        FragmentQueue fragQueue = new FragmentQueue(maxNumFragments);
+        highlight(text, tokens, 0, text.length(), 0, 0, fragQueue);
+        return bestFirst(fragQueue);
+    }
+
+    /**
+     * Returns the best <code>maxNumFragments</code> fragments of <code>text</code>, best first, only
+     * analyzing the text within <code>margin</code> chars of the <code>candidates</code>. Without
+     * candidates, the leading <code>margin</code> chars are returned as they are, a <code>margin</code>
+     * of 0 standing for the whole text.
+     */
+    public SplitFragment[] getBestFragments(String text, OffsetMatches candidates, int margin, int maxNumFragments) throws IOException {
+        return getBestFragments(text, null, candidates, margin, maxNumFragments);
+    }
+
+    /**
+     * Like {@link #getBestFragments(String, OffsetMatches, int, int)}, the text around the
+     * <code>candidates</code> being replayed from its already scanned <code>tokens</code>, if given,
+     * instead of being analyzed.
+     */
+    public SplitFragment[] getBestFragments(String text, SplitTokens tokens, OffsetMatches candidates, int margin, int maxNumFragments) throws IOException {
+        if (candidates.size() == 0) {
+            SplitFragment fragment = new SplitFragment(0, 0);
+            fragment.setTextEndPos(margin > 0 ? SplitMarkup.wordEnd(text, Math.min(margin, text.length())) : text.length());
+            markup.appendRange(fragment, text, 0, fragment.getTextEndPos(), NO_SPANS, NO_SPANS, 0);
+            return new SplitFragment[] { fragment };
+        }
+        if (margin <= 0) {
+            return tokens != null ? getBestFragments(text, tokens, maxNumFragments) : getBestFragments(text, maxNumFragments);
+        }
+        FragmentQueue fragQueue = new FragmentQueue(maxNumFragments);
+        int fragNum = 0;
+        int analyzed = 0;
+        int windowStart = -1;
+        int windowEnd = -1;
+        for (int i = 0; i < candidates.size(); i++) {
+            int start = SplitMarkup.wordStart(text, Math.max(0, candidates.start(i) - margin));
+            int end = SplitMarkup.wordEnd(text, Math.min(text.length(), candidates.end(i) + margin));
+            if (windowEnd >= start) {
+                windowEnd = Math.max(windowEnd, end);
+                continue;
+            }
+            if (windowStart >= 0) {
+                fragNum = highlight(text, tokens, windowStart, windowEnd, fragNum, analyzed, fragQueue);
+                analyzed += windowEnd - windowStart;
+                if (budgetSpent(analyzed)) {
+                    return bestFirst(fragQueue);
+                }
+            }
+            windowStart = start;
+            windowEnd = end;
+        }
+        highlight(text, tokens, windowStart, windowEnd, fragNum, analyzed, fragQueue);
+        return bestFirst(fragQueue);
+    }
+
+    /**
+     * Highlights <code>text</code> between <code>start</code> and <code>end</code> into
+     * <code>fragQueue</code>, numbering the fragments from <code>fragNum</code>, <code>analyzed</code>
+     * chars of the value having been analyzed already. The tokens of the text are replayed from its
+     * <code>tokens</code> when they are given. Returns the next fragment number.
+     */
+    private int highlight(String text, SplitTokens tokens, int start, int end, int fragNum, int analyzed, FragmentQueue fragQueue) throws IOException {
+        String window = start == 0 && end == text.length() ? text : text.substring(start, end);
+        TokenStream tokenStream = tokens != null ? tokens.tokenStream(text, start, end) : analyzer.matchTokenStream(new FastStringReader(window));
+        try {
+            tokenStream.reset();
+            if (fragmentScorer instanceof QueryScorer) {
+                // always highlight across all data
+                ((QueryScorer) fragmentScorer).setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
+            }
+            TokenStream newStream = fragmentScorer.init(tokenStream);
+            if (newStream != null) {
+                tokenStream = newStream;
+            }
+            OffsetAttribute offsetAtt = tokenStream.addAttribute(OffsetAttribute.class);
+            TypeAttribute typeAtt = tokenStream.addAttribute(TypeAttribute.class);
+            textFragmenter.start(window, tokenStream);
+
+            SplitFragment currentFrag = new SplitFragment(fragNum++, start);
+            // the scorers shipped with lucene only use the fragment to reset their state
+            fragmentScorer.startFragment(null);
+
+            while (tokenStream.incrementToken()) {
+                if (budgetSpent(analyzed + offsetAtt.startOffset())) {
+                    break;
+                }
+                float tokenScore = fragmentScorer.getTokenScore();
+                if (textFragmenter.isNewFragment()) {
+                    currentFrag.setScore(fragmentScorer.getFragmentScore());
+                    fragQueue.insert(currentFrag);
+                    currentFrag = new SplitFragment(fragNum++, start + offsetAtt.startOffset());
+                    fragmentScorer.startFragment(null);
+                }
+                markup.appendToken(currentFrag, text, start + offsetAtt.startOffset(), start + offsetAtt.endOffset(),
+                        SplitMarkup.tokenType(typeAtt.type()), tokenScore > 0);
+                currentFrag.setTextEndPos(start + offsetAtt.endOffset());
+            }
+            tokenStream.end();
+            currentFrag.setScore(fragmentScorer.getFragmentScore());
+            fragQueue.insert(currentFrag);
+            return fragNum;
+        } finally {
+            tokenStream.close();
+        }
+    }
+
+    private SplitFragment[] bestFirst(FragmentQueue fragQueue) {
+        markup.fragmentsConsidered(fragQueue.considered());
+        return fragQueue.bestFirst();
+    }
+
+    private boolean budgetSpent(int analyzed) {
+        return maxAnalyzedChars > 0 && analyzed >= maxAnalyzedChars;
+    }
+
+    static class FragmentQueue extends PriorityQueue<SplitFragment> {
+
+        private int considered;
+
+        FragmentQueue(int size) {
+            super(size);
+        }
+
+        void insert(SplitFragment fragment) {
+            considered++;
+            insertWithOverflow(fragment);
+        }
+
+        /**
+         * The number of fragments inserted.
+         */
+        int considered() {
+            return considered;
+        }
+
+        @Override
+        protected boolean lessThan(SplitFragment fragA, SplitFragment fragB) {
+            if (fragA.getScore() == fragB.getScore()) {
+                return fragA.getFragNum() > fragB.getFragNum();
+            }
+            return fragA.getScore() < fragB.getScore();
+        }
+
+        SplitFragment[] bestFirst() {
+            SplitFragment[] frags = new SplitFragment[size()];
+            for (int i = frags.length - 1; i >= 0; i--) {
+                frags[i] = pop();
+            }
+            return frags;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.standard.StandardTokenizerInterface;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.io.FastStringReader;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+import org.elasticsearch.index.analysis.split.SplitTokenFilter;
+import org.elasticsearch.index.analysis.split.SplitTokenizer;
+import org.elasticsearch.index.analysis.split.SplitTokenizerImpl;
+
+import java.io.IOException;
+
+/**
+ * Writes the split markup of tokens: highlighted tokens are wrapped in the highlight tags, delimiters
+ * are HTML encoded and words that are not stop words are wrapped in <code>&lt;i&gt;</code>, exactly
+ * like {@link SplitTokenFilter} does. When writing spans, the tokens are written as they are and the
+ * same information is recorded as {@link SplitFragment} spans instead.
+ */
+public class SplitMarkup {
+
+    private final String preTag;
+
+    private final String postTag;
+
+    private final CharArraySet stopWords;
+
+    private final int maxTokenLength;
+
+    private final boolean spans;
+
+    private final SplitAnalyzer analyzer;
+
+    private HighlightTrace trace;
+
+    private SplitMarkupCache memo;
+
+    private String index;
+
+    private SplitTokenizerImpl scanner;
+
+    private char[] lowerCased = new char[16];
+
+    public SplitMarkup(String preTag, String postTag, SplitAnalyzer analyzer) {
+        this(preTag, postTag, analyzer, false);
+    }
+
+    public SplitMarkup(String preTag, String postTag, SplitAnalyzer analyzer, boolean spans) {
+        this.preTag = preTag;
+        this.postTag = postTag;
+        this.stopWords = analyzer.getStopwordSet();
+        this.maxTokenLength = analyzer.getMaxTokenLength();
+        this.spans = spans;
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Counts the tokens written in <code>trace</code>, until it is set back to <tt>null</tt>.
+     */
+    public void setTrace(HighlightTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Memoizes the markup of the ranges written without highlights in <code>memo</code>, under
+     * <code>index</code>.
+     */
+    public void setMemo(SplitMarkupCache memo, String index) {
+        this.memo = memo;
+        this.index = index;
+    }
+
+    /**
+     * Counts <code>count</code> fragments as considered in the trace, if any.
+     */
+    public void fragmentsConsidered(int count) {
+        if (trace != null) {
+            trace.fragments(count);
+        }
+    }
+
+    /**
+     * Maps a token type string to its {@link SplitTokenizer} constant, unknown types being
+     * {@link SplitTokenizer#ALPHANUM}.
+     */
+    public static int tokenType(String type) {
+        // the tokenizer sets the type strings of TOKEN_TYPES
+        for (int i = 0; i < SplitTokenizer.TOKEN_TYPES.length; i++) {
+            if (SplitTokenizer.TOKEN_TYPES[i] == type) {
+                return i;
+            }
+        }
+        for (int i = 0; i < SplitTokenizer.TOKEN_TYPES.length; i++) {
+            if (SplitTokenizer.TOKEN_TYPES[i].equals(type)) {
+                return i;
+            }
+        }
+        return SplitTokenizer.ALPHANUM;
+    }
+
+    public void appendToken(SplitFragment fragment, String text, int start, int end, int type, boolean highlight) {
+        StringBuilder markup = fragment.markup();
+        if (trace != null) {
+            trace.token(type, end - start);
+        }
+        if (spans) {
+            appendSpan(fragment, text, start, end, type, highlight);
+        } else if (highlight) {
+            markup.append(preTag).append(text, start, end).append(postTag);
+        } else if (type == SplitTokenizer.SPLIT) {
+            SplitTokenFilter.htmlEncode(text, start, end, markup);
+        } else if (type == SplitTokenizer.HIGHLIGHT || isStopWord(text, start, end)) {
+            markup.append(text, start, end);
+        } else {
+            markup.append("<i>").append(text, start, end).append("</i>");
+        }
+    }
+
+    private void appendSpan(SplitFragment fragment, String text, int start, int end, int type, boolean highlight) {
+        StringBuilder markup = fragment.markup();
+        int spanStart = markup.length();
+        markup.append(text, start, end);
+        if (highlight) {
+            fragment.addSpan(spanStart, markup.length(), SplitFragment.HIGHLIGHT_SPAN);
+        } else if (type == SplitTokenizer.SPLIT) {
+            fragment.addSpan(spanStart, markup.length(), SplitFragment.DELIMITER_SPAN);
+        } else if (type != SplitTokenizer.HIGHLIGHT && !isStopWord(text, start, end)) {
+            fragment.addSpan(spanStart, markup.length(), SplitFragment.WORD_SPAN);
+        } else {
+            fragment.useSpans();
+        }
+    }
+
+    /**
+     * Scans <code>text</code> between <code>start</code> and <code>end</code> with the split grammar and
+     * appends the markup of its tokens to <code>fragment</code>. A token is highlighted when it overlaps
+     * one of the <code>count</code> sorted spans given by <code>highlightStarts</code> and
+     * <code>highlightEnds</code>. Without highlights, the markup comes from the memo when it knows the
+     * range, which is not traced then.
+     */
+    public void appendRange(SplitFragment fragment, String text, int start, int end,
+                            int[] highlightStarts, int[] highlightEnds, int count) throws IOException {
+        if (count > 0 || spans || memo == null) {
+            scanRange(fragment, text, start, end, highlightStarts, highlightEnds, count);
+            return;
+        }
+        String range = text.substring(start, end);
+        StringBuilder markup = fragment.markup();
+        String rangeMarkup = memo.get(index, analyzer, range);
+        if (rangeMarkup != null) {
+            markup.append(rangeMarkup);
+            return;
+        }
+        int markupStart = markup.length();
+        scanRange(fragment, text, start, end, highlightStarts, highlightEnds, count);
+        memo.put(index, analyzer, range, markup.substring(markupStart));
+    }
+
+    private void scanRange(SplitFragment fragment, String text, int start, int end,
+                           int[] highlightStarts, int[] highlightEnds, int count) throws IOException {
+        FastStringReader reader = new FastStringReader(text);
+        reader.skip(start);
+        if (scanner == null) {
+            scanner = new SplitTokenizerImpl(reader);
+        } else {
+            scanner.yyreset(reader);
+        }
+        int span = 0;
+        while (true) {
+            int type = scanner.getNextToken();
+            if (type == StandardTokenizerInterface.YYEOF) {
+                break;
+            }
+            int tokenStart = start + scanner.yychar();
+            if (tokenStart >= end) {
+                break;
+            }
+            int tokenEnd = tokenStart + scanner.yylength();
+            if (scanner.yylength() > maxTokenLength) {
+                // dropped by the tokenizer as well
+                continue;
+            }
+            while (span < count && highlightEnds[span] <= tokenStart) {
+                span++;
+            }
+            boolean highlight = span < count && highlightStarts[span] < tokenEnd;
+            appendToken(fragment, text, tokenStart, tokenEnd, type, highlight);
+        }
+    }
+
+    /**
+     * Moves <code>pos</code> back to the start of the word it falls in.
+     */
+    public static int wordStart(String text, int pos) {
+        while (pos > 0 && pos < text.length() && Character.isLetterOrDigit(text.charAt(pos - 1)) && Character.isLetterOrDigit(text.charAt(pos))) {
+            pos--;
+        }
+        return pos;
+    }
+
+    /**
+     * Moves <code>pos</code> forward to the end of the word it falls in.
+     */
+    public static int wordEnd(String text, int pos) {
+        while (pos > 0 && pos < text.length() && Character.isLetterOrDigit(text.charAt(pos - 1)) && Character.isLetterOrDigit(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private boolean isStopWord(String text, int start, int end) {
+        int length = end - start;
+        if (lowerCased.length < length) {
+            lowerCased = new char[ArrayUtil.oversize(length, RamUsageEstimator.NUM_BYTES_CHAR)];
+        }
+        for (int i = 0; i < length; i++) {
+            lowerCased[i] = Character.toLowerCase(text.charAt(start + i));
+        }
+        return stopWords.contains(lowerCased, 0, length);
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.indices.IndicesLifecycle;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A memo of the split markup of fragment texts, keyed by index, split analyzer and text since the
+ * analyzers of an index may split differently. Log lines repeat a lot, the same fragment is then split once for all the
+ * hits it shows up in. The plain engine memoizes the fragments it splits, the single pass the text it
+ * writes without highlights, that is the leading text of values without candidates. Hits and misses
+ * are counted per index, to tell whether the memo pays off, and the entries and counts of an index are
+ * dropped when it is closed on the node.
+ * <p/>
+ * Configured with the node settings <code>split_highlight.markup_cache.size</code> and
+ * <code>split_highlight.markup_cache.expire</code>.
+ */
+public class SplitMarkupCache extends HighlightCache<SplitMarkupCache.Key, String> {
+
+    private final ConcurrentMap<String, Stats> stats = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public SplitMarkupCache(Settings settings, IndicesLifecycle indicesLifecycle) {
+        super(settings, "markup_cache");
+        indicesLifecycle.addListener(new IndicesLifecycle.Listener() {
+            @Override
+            public void afterIndexClosed(Index index, boolean delete) {
+                invalidate(index.name());
+            }
+        });
+    }
+
+    @Override
+    protected long weigh(Key key, String markup) {
+        return 64 + 2L * (key.text.length() + markup.length());
+    }
+
+    /**
+     * Returns the markup of <code>text</code> by <code>analyzer</code> in <code>index</code>, or
+     * <tt>null</tt> if it is not known.
+     */
+    public String get(String index, Analyzer analyzer, String text) {
+        String markup = get(new Key(index, analyzer, text));
+        if (markup == null) {
+            stats(index).misses.inc();
+        } else {
+            stats(index).hits.inc();
+        }
+        return markup;
+    }
+
+    public void put(String index, Analyzer analyzer, String text, String markup) {
+        put(new Key(index, analyzer, text), markup);
+    }
+
+    /**
+     * The hits and misses of the memo for <code>index</code>.
+     */
+    public Stats stats(String index) {
+        Stats indexStats = stats.get(index);
+        if (indexStats == null) {
+            Stats newStats = new Stats();
+            indexStats = stats.putIfAbsent(index, newStats);
+            if (indexStats == null) {
+                indexStats = newStats;
+            }
+        }
+        return indexStats;
+    }
+
+    private void invalidate(String index) {
+        stats.remove(index);
+        if (!enabled()) {
+            return;
+        }
+        for (Iterator<Key> it = keys(); it.hasNext(); ) {
+            if (it.next().index.equals(index)) {
+                it.remove();
+            }
+        }
+    }
+
+    public static class Stats {
+
+        private final CounterMetric hits = new CounterMetric();
+
+        private final CounterMetric misses = new CounterMetric();
+
+        public long hits() {
+            return hits.count();
+        }
+
+        public long misses() {
+            return misses.count();
+        }
+
+        /**
+         * The share of the lookups that hit, <tt>0</tt> when there was none.
+         */
+        public double hitRate() {
+            long hitCount = hits.count();
+            long total = hitCount + misses.count();
+            return total == 0 ? 0 : (double) hitCount / total;
+        }
+    }
+
+    static class Key {
+
+        private final String index;
+
+        private final Analyzer analyzer;
+
+        private final String text;
+
+        Key(String index, Analyzer analyzer, String text) {
+            this.index = index;
+            this.analyzer = analyzer;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return analyzer == key.analyzer && index.equals(key.index) && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = index.hashCode();
+            result = 31 * result + System.identityHashCode(analyzer);
+            result = 31 * result + text.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardTokenizerInterface;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.io.FastStringReader;
+import org.elasticsearch.index.analysis.split.SplitTokenizer;
+import org.elasticsearch.index.analysis.split.SplitTokenizerImpl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The split tokens of a value, their offsets, types and position increments packed in arrays. They
+ * do not depend on the query, so they are scanned once and replayed with {@link #tokenStream(String)}
+ * by any query instead of the value being tokenized again.
+ */
+public class SplitTokens {
+
+    private final int textLength;
+
+    // the String hash of the text, telling the tokens of other values as long apart
+    private final int textHash;
+
+    private final int count;
+
+    private final int[] starts;
+
+    private final int[] ends;
+
+    private final byte[] types;
+
+    // position increments above 1 only follow over long tokens, they are capped to a byte
+    private final byte[] posIncs;
+
+    private SplitTokens(int textLength, int textHash, int count, int[] starts, int[] ends, byte[] types, byte[] posIncs) {
+        this.textLength = textLength;
+        this.textHash = textHash;
+        this.count = count;
+        this.starts = starts;
+        this.ends = ends;
+        this.types = types;
+        this.posIncs = posIncs;
+    }
+
+    /**
+     * Scans <code>text</code> with the split grammar, dropping the tokens longer than
+     * <code>maxTokenLength</code> like {@link SplitTokenizer} does.
+     */
+    public static SplitTokens scan(String text, int maxTokenLength) throws IOException {
+        SplitTokenizerImpl scanner = new SplitTokenizerImpl(new FastStringReader(text));
+        int count = 0;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        byte[] types = new byte[16];
+        byte[] posIncs = new byte[16];
+        int posInc = 1;
+        while (true) {
+            int type = scanner.getNextToken();
+            if (type == StandardTokenizerInterface.YYEOF) {
+                break;
+            }
+            if (scanner.yylength() > maxTokenLength) {
+                posInc++;
+                continue;
+            }
+            if (count == starts.length) {
+                starts = ArrayUtil.grow(starts);
+                ends = ArrayUtil.grow(ends, starts.length);
+                types = ArrayUtil.grow(types, starts.length);
+                posIncs = ArrayUtil.grow(posIncs, starts.length);
+            }
+            starts[count] = scanner.yychar();
+            ends[count] = scanner.yychar() + scanner.yylength();
+            types[count] = (byte) type;
+            posIncs[count] = (byte) Math.min(posInc, Byte.MAX_VALUE);
+            posInc = 1;
+            count++;
+        }
+        return new SplitTokens(text.length(), text.hashCode(), count, starts, ends, types, posIncs);
+    }
+
+    /**
+     * Encodes the tokens for a binary stored field: the text length, the text hash as 4 bytes and the
+     * token count, then for each
+     * token the gap from the end of the previous one and its length as vints, and its type as a byte
+     * whose high bit tells that a position increment other than 1 follows as a vint.
+     */
+    public BytesRef encode() {
+        BytesRef bytes = new BytesRef(12 + count * 3);
+        writeVInt(bytes, textLength);
+        writeByte(bytes, (byte) (textHash >> 24));
+        writeByte(bytes, (byte) (textHash >> 16));
+        writeByte(bytes, (byte) (textHash >> 8));
+        writeByte(bytes, (byte) textHash);
+        writeVInt(bytes, count);
+        int previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            writeVInt(bytes, starts[i] - previousEnd);
+            writeVInt(bytes, ends[i] - starts[i]);
+            if (posIncs[i] == 1) {
+                writeByte(bytes, types[i]);
+            } else {
+                writeByte(bytes, (byte) (types[i] | 0x80));
+                writeVInt(bytes, posIncs[i]);
+            }
+            previousEnd = ends[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes tokens written by {@link #encode()}.
+     */
+    public static SplitTokens decode(byte[] bytes, int offset, int length) {
+        ByteArrayDataInput in = new ByteArrayDataInput(bytes, offset, length);
+        int textLength = in.readVInt();
+        int textHash = in.readInt();
+        int count = in.readVInt();
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        byte[] types = new byte[count];
+        byte[] posIncs = new byte[count];
+        int previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            starts[i] = previousEnd + in.readVInt();
+            ends[i] = starts[i] + in.readVInt();
+            byte type = in.readByte();
+            types[i] = (byte) (type & 0x7F);
+            posIncs[i] = (type & 0x80) == 0 ? 1 : (byte) in.readVInt();
+            previousEnd = ends[i];
+        }
+        return new SplitTokens(textLength, textHash, count, starts, ends, types, posIncs);
+    }
+
+    private static void writeVInt(BytesRef bytes, int i) {
+        while ((i & ~0x7F) != 0) {
+            writeByte(bytes, (byte) ((i & 0x7F) | 0x80));
+            i >>>= 7;
+        }
+        writeByte(bytes, (byte) i);
+    }
+
+    private static void writeByte(BytesRef bytes, byte b) {
+        if (bytes.length == bytes.bytes.length) {
+            bytes.bytes = ArrayUtil.grow(bytes.bytes);
+        }
+        bytes.bytes[bytes.length++] = b;
+    }
+
+    /**
+     * Whether these are the tokens of <code>text</code>, as far as its length and hash tell, so that
+     * the tokens of a former value of a document are not replayed over its current one.
+     */
+    public boolean matches(String text) {
+        return textLength == text.length() && textHash == text.hashCode();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long ramBytesUsed() {
+        return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 3 * RamUsageEstimator.NUM_BYTES_INT + 4 * RamUsageEstimator.NUM_BYTES_OBJECT_REF
+                + RamUsageEstimator.sizeOf(starts) + RamUsageEstimator.sizeOf(ends)
+                + RamUsageEstimator.sizeOf(types) + RamUsageEstimator.sizeOf(posIncs);
+    }
+
+    /**
+     * Replays the tokens of <code>text</code> as the match token stream of
+     * {@link org.elasticsearch.index.analysis.split.SplitAnalyzer#matchTokenStream(java.io.Reader)}
+     * would produce them, lower cased.
+     */
+    public TokenStream tokenStream(String text) {
+        return new ReplayTokenStream(text, 0, textLength);
+    }
+
+    /**
+     * Replays the tokens of <code>text</code> starting between <code>start</code> and <code>end</code>,
+     * with offsets relative to <code>start</code> as if the window was analyzed on its own.
+     */
+    public TokenStream tokenStream(String text, int start, int end) {
+        return new ReplayTokenStream(text, start, end);
+    }
+
+    private class ReplayTokenStream extends TokenStream {
+
+        private final String text;
+
+        private final int windowStart;
+
+        private final int windowEnd;
+
+        private final int first;
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+        private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+        private int next;
+
+        ReplayTokenStream(String text, int windowStart, int windowEnd) {
+            this.text = text;
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            int first = Arrays.binarySearch(starts, 0, count, windowStart);
+            this.first = first >= 0 ? first : -1 - first;
+            this.next = this.first;
+        }
+
+        @Override
+        public boolean incrementToken() {
+            if (next >= count || starts[next] >= windowEnd) {
+                return false;
+            }
+            clearAttributes();
+            int start = starts[next];
+            int end = ends[next];
+            char[] buffer = termAtt.resizeBuffer(end - start);
+            for (int i = start; i < end; i++) {
+                buffer[i - start] = Character.toLowerCase(text.charAt(i));
+            }
+            termAtt.setLength(end - start);
+            offsetAtt.setOffset(start - windowStart, Math.min(end, windowEnd) - windowStart);
+            typeAtt.setType(SplitTokenizer.TOKEN_TYPES[types[next]]);
+            posIncAtt.setPositionIncrement(posIncs[next]);
+            next++;
+            return true;
+        }
+
+        @Override
+        public void end() {
+            offsetAtt.setOffset(windowEnd - windowStart, windowEnd - windowStart);
+        }
+
+        @Override
+        public void reset() {
+            next = first;
+        }
+    }
+}
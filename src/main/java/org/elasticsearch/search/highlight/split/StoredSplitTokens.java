@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the split tokens a <code>split_string</code> field stored at index time for a document, see
+ * {@link org.elasticsearch.index.mapper.split.SplitStringFieldMapper}.
+ */
+public class StoredSplitTokens extends StoredFieldVisitor {
+
+    private final String field;
+
+    private final List<SplitTokens> tokens = new ArrayList<SplitTokens>(1);
+
+    private StoredSplitTokens(String field) {
+        this.field = field;
+    }
+
+    /**
+     * Returns the split tokens stored in <code>field</code> for <code>docId</code>, one per value, or
+     * <tt>null</tt> if the segment does not have that field.
+     */
+    public static SplitTokens[] load(AtomicReader reader, int docId, String field) throws IOException {
+        if (reader.getFieldInfos().fieldInfo(field) == null) {
+            return null;
+        }
+        StoredSplitTokens visitor = new StoredSplitTokens(field);
+        reader.document(docId, visitor);
+        return visitor.tokens.toArray(new SplitTokens[visitor.tokens.size()]);
+    }
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) throws IOException {
+        return field.equals(fieldInfo.name) ? Status.YES : Status.NO;
+    }
+
+    @Override
+    public void binaryField(FieldInfo fieldInfo, byte[] value, int offset, int length) throws IOException {
+        tokens.add(SplitTokens.decode(value, offset, length));
+    }
+}
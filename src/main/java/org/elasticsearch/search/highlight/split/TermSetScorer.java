@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.search.highlight.Scorer;
+import org.apache.lucene.search.highlight.TextFragment;
+
+/**
+ * Scores tokens by probing the term set of a term query, without anything to set up per document or
+ * to allocate per token. A fragment scores the number of its tokens that match.
+ */
+public class TermSetScorer implements Scorer {
+
+    private final CharArraySet termSet;
+
+    private CharTermAttribute termAtt;
+
+    private float totalScore;
+
+    public TermSetScorer(CharArraySet termSet) {
+        this.termSet = termSet;
+    }
+
+    @Override
+    public TokenStream init(TokenStream tokenStream) {
+        termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+        return null;
+    }
+
+    @Override
+    public void startFragment(TextFragment newFragment) {
+        totalScore = 0;
+    }
+
+    @Override
+    public float getTokenScore() {
+        if (termSet.contains(termAtt.buffer(), 0, termAtt.length())) {
+            totalScore++;
+            return 1;
+        }
+        return 0;
+    }
+
+    @Override
+    public float getFragmentScore() {
+        return totalScore;
+    }
+}
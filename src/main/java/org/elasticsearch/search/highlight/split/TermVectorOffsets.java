@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+
+import java.io.IOException;
+
+/**
+ * Reads the offsets of the query terms from the term vector stored for a document.
+ */
+public class TermVectorOffsets implements OffsetSource {
+
+    @Override
+    public boolean load(AtomicReader reader, int docId, String field, HighlightTerms terms, OffsetMatches matches) throws IOException {
+        Terms vector = reader.getTermVector(docId, field);
+        if (vector == null || !vector.hasOffsets()) {
+            return false;
+        }
+        TermsEnum termsEnum = vector.iterator(null);
+        DocsAndPositionsEnum dpEnum = null;
+        for (int ord = 0; ord < terms.size(); ord++) {
+            if (!termsEnum.seekExact(terms.bytes(ord), false)) {
+                continue;
+            }
+            dpEnum = termsEnum.docsAndPositions(null, dpEnum, DocsAndPositionsEnum.FLAG_OFFSETS);
+            if (dpEnum == null || dpEnum.nextDoc() == DocIdSetIterator.NO_MORE_DOCS) {
+                continue;
+            }
+            int freq = dpEnum.freq();
+            for (int i = 0; i < freq; i++) {
+                dpEnum.nextPosition();
+                matches.add(dpEnum.startOffset(), dpEnum.endOffset(), ord);
+            }
+        }
+        matches.sort();
+        return true;
+    }
+}
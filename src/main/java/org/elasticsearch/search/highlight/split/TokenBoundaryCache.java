@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+
+/**
+ * A cache of the {@link SplitTokens} of the values of a field of a document, which any query can
+ * highlight from. Configured with the node settings <code>split_highlight.token_cache.size</code> and
+ * <code>split_highlight.token_cache.expire</code>.
+ */
+public class TokenBoundaryCache extends SegmentHighlightCache<TokenBoundaryCache.Key, SplitTokens[]> {
+
+    @Inject
+    public TokenBoundaryCache(Settings settings) {
+        super(settings, "token_cache");
+    }
+
+    @Override
+    protected long weigh(Key key, SplitTokens[] tokens) {
+        long weight = 64;
+        for (SplitTokens valueTokens : tokens) {
+            weight += valueTokens.ramBytesUsed();
+        }
+        return weight;
+    }
+
+    public static class Key implements SegmentHighlightCache.SegmentKey {
+
+        private final Object coreKey;
+
+        private final int docId;
+
+        private final String field;
+
+        public Key(Object coreKey, int docId, String field) {
+            this.coreKey = coreKey;
+            this.docId = docId;
+            this.field = field;
+        }
+
+        @Override
+        public Object coreKey() {
+            return coreKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (docId != key.docId) return false;
+            if (coreKey != key.coreKey) return false;
+            return field.equals(key.field);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(coreKey);
+            result = 31 * result + docId;
+            result = 31 * result + field.hashCode();
+            return result;
+        }
+    }
+}
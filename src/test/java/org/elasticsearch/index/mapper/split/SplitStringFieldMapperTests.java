@@ -0,0 +1,138 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.index.mapper.split;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.inject.ModulesBuilder;
+import org.elasticsearch.common.settings.SettingsModule;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.EnvironmentModule;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexNameModule;
+import org.elasticsearch.index.analysis.AnalysisModule;
+import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.analysis.split.SplitAnalysisBinderProcessor;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.DocumentMapperParser;
+import org.elasticsearch.index.mapper.ParsedDocument;
+import org.elasticsearch.index.settings.IndexSettingsModule;
+import org.elasticsearch.indices.analysis.IndicesAnalysisService;
+import org.elasticsearch.search.highlight.split.SplitTokens;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.elasticsearch.common.settings.ImmutableSettings.Builder.EMPTY_SETTINGS;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.index.mapper.DocumentMapper.MergeFlags.mergeFlags;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ */
+public class SplitStringFieldMapperTests {
+
+    private DocumentMapperParser mapperParser;
+
+    @BeforeClass
+    public void setupMapperParser() {
+        Index index = new Index("test");
+        Injector parentInjector = new ModulesBuilder().add(new SettingsModule(EMPTY_SETTINGS), new EnvironmentModule(new Environment(EMPTY_SETTINGS))).createInjector();
+        Injector injector = new ModulesBuilder().add(
+                new IndexSettingsModule(index, EMPTY_SETTINGS),
+                new IndexNameModule(index),
+                new AnalysisModule(EMPTY_SETTINGS, parentInjector.getInstance(IndicesAnalysisService.class)).addProcessor(new SplitAnalysisBinderProcessor()))
+                .createChildInjector(parentInjector);
+        mapperParser = new DocumentMapperParser(index, injector.getInstance(AnalysisService.class), null, null);
+        mapperParser.putTypeParser(SplitStringFieldMapper.CONTENT_TYPE, new SplitStringFieldMapper.TypeParser());
+    }
+
+    private DocumentMapper mapper(String type, String nullValue) throws IOException {
+        return mapperParser.parse(jsonBuilder().startObject().startObject("type").startObject("properties")
+                .startObject("message").field("type", type).field("store", "yes").field("null_value", nullValue).endObject()
+                .endObject().endObject().endObject().string());
+    }
+
+    private static SplitTokens storedTokens(ParsedDocument doc) {
+        BytesRef bytes = doc.rootDoc().getBinaryValue(SplitStringFieldMapper.tokensField("message"));
+        assertThat(bytes, notNullValue());
+        return SplitTokens.decode(bytes.bytes, bytes.offset, bytes.length);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        DocumentMapper docMapper = mapper(SplitStringFieldMapper.CONTENT_TYPE, "none");
+
+        ParsedDocument doc = docMapper.parse("type", "1", jsonBuilder().startObject()
+                .field("message", "nomad::Job::ReturnAnswer:163")
+                .endObject().bytes());
+        assertThat(doc.rootDoc().get("message"), equalTo("nomad::Job::ReturnAnswer:163"));
+        SplitTokens tokens = storedTokens(doc);
+        assertThat(tokens.matches("nomad::Job::ReturnAnswer:163"), equalTo(true));
+        assertThat(tokens.size(), greaterThan(1));
+
+        doc = docMapper.parse("type", "2", jsonBuilder().startObject()
+                .startObject("message").field("value", "xsflsy02.sa.nhnsystem.com").field("boost", 2.0f).endObject()
+                .endObject().bytes());
+        assertThat(storedTokens(doc).matches("xsflsy02.sa.nhnsystem.com"), equalTo(true));
+
+        doc = docMapper.parse("type", "3", jsonBuilder().startObject()
+                .nullField("message")
+                .endObject().bytes());
+        assertThat(storedTokens(doc).matches("none"), equalTo(true));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        DocumentMapper docMapper = mapper(SplitStringFieldMapper.CONTENT_TYPE, "none");
+
+        DocumentMapper.MergeResult result = docMapper.merge(mapper("string", "none"), mergeFlags().simulate(true));
+        assertThat(result.hasConflicts(), equalTo(true));
+
+        result = docMapper.merge(mapper(SplitStringFieldMapper.CONTENT_TYPE, "n/a"), mergeFlags().simulate(false));
+        assertThat(result.hasConflicts(), equalTo(false));
+
+        ParsedDocument doc = docMapper.parse("type", "1", jsonBuilder().startObject()
+                .nullField("message")
+                .endObject().bytes());
+        assertThat(storedTokens(doc).matches("n/a"), equalTo(true));
+    }
+
+    @Test
+    public void testToXContent() throws Exception {
+        DocumentMapper docMapper = mapper(SplitStringFieldMapper.CONTENT_TYPE, "none");
+        docMapper.merge(mapper(SplitStringFieldMapper.CONTENT_TYPE, "n/a"), mergeFlags().simulate(false));
+        docMapper.refreshSource();
+
+        String source = docMapper.mappingSource().string();
+        assertThat(source, containsString("\"type\":\"split_string\""));
+        assertThat(source, containsString("\"null_value\":\"n/a\""));
+        assertThat(source, not(containsString("\"none\"")));
+
+        // the rendered mapping parses back to the same field
+        DocumentMapper reparsed = mapperParser.parse(source);
+        ParsedDocument doc = reparsed.parse("type", "1", jsonBuilder().startObject()
+                .nullField("message")
+                .endObject().bytes());
+        assertThat(storedTokens(doc).matches("n/a"), equalTo(true));
+    }
+}
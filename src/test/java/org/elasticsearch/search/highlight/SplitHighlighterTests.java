@@ -0,0 +1,81 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ */
+public class SplitHighlighterTests {
+
+    @Test
+    public void testBudgetOptions() {
+        SearchContextHighlight.Field message = new SearchContextHighlight.Field("message");
+        message.options(options("budget_max_hits", 2));
+        SearchContextHighlight.Field title = new SearchContextHighlight.Field("title");
+        SearchContextHighlight highlight = new SearchContextHighlight(Arrays.asList(message, title));
+        Assert.assertEquals(SplitHighlighter.budgetOption(highlight, "budget_max_hits"), 2);
+        Assert.assertNull(SplitHighlighter.budgetOption(highlight, "budget_timeout"));
+
+        // the same budget, as the global options give it
+        title.options(options("budget_max_hits", "2"));
+        Assert.assertEquals(SplitHighlighter.budgetOption(highlight, "budget_max_hits").toString(), "2");
+
+        title.options(options("budget_max_hits", 3));
+        try {
+            SplitHighlighter.budgetOption(highlight, "budget_max_hits");
+            Assert.fail("conflicting budgets");
+        } catch (ElasticSearchIllegalArgumentException e) {
+            // the budget is the request's
+        }
+    }
+
+    private static Map<String, Object> options(String name, Object value) {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put(name, value);
+        return options;
+    }
+
+    @Test
+    public void testSinglePassAnalyzers() throws IOException {
+        SplitAnalyzer splitAnalyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        Assert.assertTrue(SplitHighlighter.indexesSplitTokens(new StandardAnalyzer(Lucene.ANALYZER_VERSION), "message", splitAnalyzer));
+        Assert.assertTrue(SplitHighlighter.indexesSplitTokens(new StandardAnalyzer(Lucene.ANALYZER_VERSION, CharArraySet.EMPTY_SET), "message", splitAnalyzer));
+        // "analyzer": "split" indexes the tokens with their markup, which the single pass never scores
+        Assert.assertFalse(SplitHighlighter.indexesSplitTokens(new SplitAnalyzer(Lucene.ANALYZER_VERSION), "message", splitAnalyzer));
+        // stems
+        Assert.assertFalse(SplitHighlighter.indexesSplitTokens(new EnglishAnalyzer(Lucene.ANALYZER_VERSION), "message", splitAnalyzer));
+        // not lower cased
+        Assert.assertFalse(SplitHighlighter.indexesSplitTokens(new WhitespaceAnalyzer(Lucene.ANALYZER_VERSION), "message", splitAnalyzer));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight.split;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ */
+public class HighlightBudgetTests {
+
+    @Test
+    public void testUnlimited() {
+        HighlightBudget budget = new HighlightBudget(0, 0, 0);
+        Assert.assertFalse(budget.limited());
+        Assert.assertTrue(budget.admit(1));
+        Assert.assertFalse(budget.degraded());
+    }
+
+    @Test
+    public void testMaxHits() {
+        HighlightBudget budget = new HighlightBudget(0, 0, 2);
+        Assert.assertTrue(budget.admit(1));
+        Assert.assertTrue(budget.admit(2));
+        // other fields of admitted hits still are
+        Assert.assertTrue(budget.admit(1));
+        Assert.assertFalse(budget.degraded());
+        Assert.assertFalse(budget.admit(3));
+        Assert.assertTrue(budget.degraded());
+    }
+
+    @Test
+    public void testMaxAnalyzedChars() {
+        HighlightBudget budget = new HighlightBudget(100, 0, 0);
+        Assert.assertTrue(budget.admit(1));
+        budget.consume(60);
+        Assert.assertTrue(budget.admit(2));
+        budget.consume(60);
+        Assert.assertFalse(budget.admit(3));
+        Assert.assertTrue(budget.degraded());
+    }
+
+    @Test
+    public void testHitOrder() {
+        // the hits are admitted in hit order up front, then analyzed concurrently
+        HighlightBudget budget = new HighlightBudget(100, 0, 2);
+        int[] hits = { 7, 3, 5 };
+        boolean[] admitted = new boolean[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            admitted[i] = budget.admit(hits[i]);
+            if (admitted[i]) {
+                budget.consume(40);
+            }
+        }
+        Assert.assertTrue(admitted[0]);
+        Assert.assertTrue(admitted[1]);
+        Assert.assertFalse(admitted[2]);
+        Assert.assertEquals(budget.analyzedChars(), 80);
+    }
+}
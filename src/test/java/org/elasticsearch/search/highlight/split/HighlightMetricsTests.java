@@ -0,0 +1,103 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.highlight.NullFragmenter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+import org.elasticsearch.index.analysis.split.SplitTokenizer;
+import org.elasticsearch.indices.InternalIndicesLifecycle;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ */
+public class HighlightMetricsTests {
+
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.record(1500);
+        histogram.record(3000000);
+        histogram.record(Long.MAX_VALUE / 2);
+        Assert.assertEquals(histogram.count(), 4);
+        Assert.assertEquals(histogram.bucket(0), 1);
+        // 1us
+        Assert.assertEquals(histogram.bucket(1), 1);
+        // 3ms
+        Assert.assertEquals(histogram.bucket(12), 1);
+        Assert.assertEquals(histogram.bucket(LatencyHistogram.BUCKETS - 1), 1);
+    }
+
+    @Test
+    public void testTracedTokens() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        QueryScorer queryScorer = new QueryScorer(new TermQuery(new Term("f", "just")), "f");
+        SplitMarkup markup = new SplitMarkup("<em>", "</em>", analyzer);
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new NullFragmenter(), markup, analyzer);
+
+        HighlightTrace trace = new HighlightTrace();
+        markup.setTrace(trace);
+        long startNanos = System.nanoTime();
+        highlighter.getBestFragments("<123>456 Just", 1);
+        trace.add(HighlightTrace.Phase.ANALYSIS, startNanos);
+        markup.setTrace(null);
+
+        Assert.assertEquals(trace.tokens(SplitTokenizer.SPLIT), 3);
+        Assert.assertEquals(trace.tokens(), 6);
+        Assert.assertEquals(trace.tokenChars(), 13);
+        Assert.assertEquals(trace.fragments(), 1);
+        Assert.assertEquals(trace.toMap("message").get("tokens"), 6L);
+
+        HighlightMetrics metrics = new HighlightMetrics(ImmutableSettings.Builder.EMPTY_SETTINGS, new InternalIndicesLifecycle(ImmutableSettings.Builder.EMPTY_SETTINGS));
+        metrics.record("logs", "message", trace);
+        metrics.record("logs", "message", trace);
+        HighlightMetrics.FieldMetrics fieldMetrics = metrics.field("logs", "message");
+        Assert.assertEquals(fieldMetrics.count(), 2);
+        Assert.assertEquals(fieldMetrics.phase(HighlightTrace.Phase.ANALYSIS).count(), 2);
+        Assert.assertEquals(fieldMetrics.phase(HighlightTrace.Phase.MARKUP).count(), 0);
+    }
+
+    @Test
+    public void testBoundedFields() {
+        InternalIndicesLifecycle indicesLifecycle = new InternalIndicesLifecycle(ImmutableSettings.Builder.EMPTY_SETTINGS);
+        HighlightMetrics metrics = new HighlightMetrics(ImmutableSettings.settingsBuilder().put("split_highlight.metrics.max_fields", 2).build(), indicesLifecycle);
+        HighlightTrace trace = new HighlightTrace();
+        metrics.record("logs", "a", trace);
+        metrics.record("logs", "b", trace);
+        metrics.record("logs", "c", trace);
+        metrics.record("logs", "d", trace);
+        metrics.record("logs", "a", trace);
+        Assert.assertEquals(metrics.indices().get("logs").size(), 3);
+        Assert.assertEquals(metrics.field("logs", "a").count(), 2);
+        Assert.assertEquals(metrics.field("logs", HighlightMetrics.OTHER_FIELDS).count(), 2);
+
+        indicesLifecycle.afterIndexClosed(new Index("logs"), false);
+        Assert.assertNull(metrics.indices().get("logs"));
+    }
+}
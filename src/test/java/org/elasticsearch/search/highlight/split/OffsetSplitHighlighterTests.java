@@ -0,0 +1,94 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+/**
+ */
+public class OffsetSplitHighlighterTests {
+
+    @Test
+    public void testMarkupFromOffsets() throws IOException {
+        String first = "nomad::Job::ReturnAnswer:163";
+        String second = "2013-01-10 06:29:07 job";
+
+        HighlightTerms terms = HighlightTerms.extract(new TermQuery(new Term("f", "job")), "f");
+        OffsetMatches matches = new OffsetMatches();
+        // the second value starts after the offset gap of the first one
+        matches.add(first.length() + 1 + 20, first.length() + 1 + 23, 0);
+        matches.add(7, 10, 0);
+        matches.sort();
+
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        OffsetSplitHighlighter highlighter = new OffsetSplitHighlighter(terms, new SplitMarkup("<em>", "</em>", analyzer), 0);
+
+        SplitFragment[] fragments = highlighter.getBestFragments(first, 0, matches, 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), "<i>nomad</i>::<em>Job</em>::<i>ReturnAnswer</i>:<i>163</i>");
+
+        fragments = highlighter.getBestFragments(second, first.length() + 1, matches, 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), "<i>2013</i>-<i>01</i>-<i>10</i> <i>06</i>:<i>29</i>:<i>07</i> <em>job</em>");
+    }
+
+    @Test
+    public void testBestWindowFirst() throws IOException {
+        String text = "dong ai hua just the NGram";
+
+        HighlightTerms terms = HighlightTerms.extract(new TermQuery(new Term("f", "ngram")), "f");
+        OffsetMatches matches = new OffsetMatches();
+        matches.add(21, 26, 0);
+
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        OffsetSplitHighlighter highlighter = new OffsetSplitHighlighter(terms, new SplitMarkup("<em>", "</em>", analyzer), 10);
+
+        SplitFragment[] fragments = highlighter.getBestFragments(text, 0, matches, 2);
+        Assert.assertEquals(fragments.length, 2);
+        Assert.assertEquals(fragments[0].toString(), " <em>NGram</em>");
+        Assert.assertEquals(fragments[1].toString(), "<i>dong</i> <i>ai</i> <i>hua</i>");
+    }
+
+    @Test
+    public void testWordCrossingWindows() throws IOException {
+        String text = "dong ai hua just the NGram";
+
+        HighlightTerms terms = HighlightTerms.extract(new TermQuery(new Term("f", "hua")), "f");
+        OffsetMatches matches = new OffsetMatches();
+        matches.add(8, 11, 0);
+
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        OffsetSplitHighlighter highlighter = new OffsetSplitHighlighter(terms, new SplitMarkup("<em>", "</em>", analyzer), 10);
+
+        // hua crosses the boundary at 10, it belongs to the first window only
+        SplitFragment[] fragments = highlighter.getBestFragments(text, 0, matches, 3);
+        Assert.assertEquals(fragments.length, 3);
+        Assert.assertEquals(fragments[0].toString(), "<i>dong</i> <i>ai</i> <em>hua</em>");
+        Assert.assertEquals(fragments[1].toString(), " <i>just</i> the");
+        Assert.assertEquals(fragments[2].toString(), " <i>NGram</i>");
+    }
+}
@@ -0,0 +1,62 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight.split;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ */
+public class SharedSplitTokensTests {
+
+    @Test
+    public void testSharedValues() throws Exception {
+        Object coreKey = new Object();
+        SharedSplitTokens shared = new SharedSplitTokens();
+        List<Object> values = Arrays.<Object>asList("the quick brown fox", "jumps over");
+        Assert.assertNull(shared.get(coreKey, 1, 255, values));
+
+        SplitTokens[] tokens = new SplitTokens[] { SplitTokens.scan("the quick brown fox", 255), SplitTokens.scan("jumps over", 255) };
+        shared.put(coreKey, 1, 255, values, tokens);
+        // another field with the same values, as new strings
+        SplitTokens[] sharedTokens = shared.get(coreKey, 1, 255, Arrays.<Object>asList(new String("the quick brown fox"), new String("jumps over")));
+        Assert.assertNotNull(sharedTokens);
+        Assert.assertSame(sharedTokens[0], tokens[0]);
+        Assert.assertSame(sharedTokens[1], tokens[1]);
+        // a subset of the values
+        Assert.assertNotNull(shared.get(coreKey, 1, 255, Arrays.<Object>asList("jumps over")));
+    }
+
+    @Test
+    public void testOtherAnalysis() throws Exception {
+        Object coreKey = new Object();
+        SharedSplitTokens shared = new SharedSplitTokens();
+        List<Object> values = Arrays.<Object>asList("the quick brown fox");
+        shared.put(coreKey, 1, 255, values, new SplitTokens[] { SplitTokens.scan("the quick brown fox", 255) });
+        Assert.assertNull(shared.get(coreKey, 1, 3, values));
+        Assert.assertNull(shared.get(coreKey, 2, 255, values));
+        Assert.assertNull(shared.get(new Object(), 1, 255, values));
+        Assert.assertNull(shared.get(coreKey, 1, 255, Arrays.<Object>asList("the quick brown fox", "jumps over")));
+        Assert.assertEquals(shared.size(), 1);
+    }
+}
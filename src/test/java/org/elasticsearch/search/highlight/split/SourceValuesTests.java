@@ -0,0 +1,54 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight.split;
+
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ */
+public class SourceValuesTests {
+
+    @Test
+    public void testExtractPaths() throws IOException {
+        XContentBuilder source = XContentFactory.jsonBuilder().startObject()
+                .field("message", "nomad::Job::ReturnAnswer:163")
+                .startObject("payload").field("body", "skipped").startArray("items").value(1).value(2).endArray().endObject()
+                .startArray("tags").startObject().field("name", "job").endObject().startObject().field("name", "answer").endObject().endArray()
+                .field("host.name", "xsflsy02.sa.nhnsystem.com")
+                .nullField("empty")
+                .endObject();
+
+        SourceValues values = SourceValues.extract(1, source.bytes(), Sets.newHashSet("message", "tags.name", "host.name", "empty", "missing"));
+        Assert.assertEquals(values.docId(), 1);
+        Assert.assertEquals(values.get("message"), Arrays.<Object>asList("nomad::Job::ReturnAnswer:163"));
+        Assert.assertEquals(values.get("tags.name"), Arrays.<Object>asList("job", "answer"));
+        Assert.assertEquals(values.get("host.name"), Arrays.<Object>asList("xsflsy02.sa.nhnsystem.com"));
+        Assert.assertTrue(values.get("empty").isEmpty());
+        Assert.assertTrue(values.get("missing").isEmpty());
+        Assert.assertTrue(values.get("payload.body").isEmpty());
+    }
+}
@@ -0,0 +1,290 @@
+/*
+* Licensed to ElasticSearch and Shay Banon under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. ElasticSearch licenses this
+* file to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.elasticsearch.search.highlight.split;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.highlight.NullFragmenter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleFragmenter;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.index.analysis.split.SplitAnalyzer;
+import org.elasticsearch.indices.InternalIndicesLifecycle;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ */
+public class SplitFragmentHighlighterTests {
+
+    @Test
+    public void testSinglePassMarkup() throws IOException {
+        String[] strings = new String[]
+                {
+                        "刘德华 dong ai hua just the NGram",
+                        "xsflsy02.sa.nhnsystem.com",
+                        "<123>456 Just"
+                };
+        String[] expected = new String[]
+                {
+                        "<i>刘</i><i>德</i><i>华</i> <i>dong</i> <i>ai</i> <i>hua</i> <em>just</em> the <i>NGram</i>",
+                        "<i>xsflsy02</i>.<i>sa.nhnsystem.com</i>",
+                        "&lt;<i>123</i>&gt;<i>456</i> <em>Just</em>"
+                };
+
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        QueryScorer queryScorer = new QueryScorer(new TermQuery(new Term("f", "just")), "f");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer), analyzer);
+
+        for (int i = 0, len = strings.length; i < len; i++) {
+            SplitFragment[] fragments = highlighter.getBestFragments(strings[i], 1);
+            Assert.assertEquals(fragments.length, 1);
+            Assert.assertEquals(fragments[0].toString(), expected[i]);
+
+            // replaying the scanned tokens gives the same markup
+            fragments = highlighter.getBestFragments(strings[i], SplitTokens.scan(strings[i], analyzer.getMaxTokenLength()), 1);
+            Assert.assertEquals(fragments.length, 1);
+            Assert.assertEquals(fragments[0].toString(), expected[i]);
+
+            // and so does replaying them once stored
+            BytesRef encoded = SplitTokens.scan(strings[i], analyzer.getMaxTokenLength()).encode();
+            SplitTokens decoded = SplitTokens.decode(encoded.bytes, encoded.offset, encoded.length);
+            Assert.assertTrue(decoded.matches(strings[i]));
+            // another value as long
+            Assert.assertFalse(decoded.matches(new StringBuilder(strings[i]).reverse().toString()));
+            fragments = highlighter.getBestFragments(strings[i], decoded, 1);
+            Assert.assertEquals(fragments[0].toString(), expected[i]);
+        }
+    }
+
+    @Test
+    public void testSpansOutput() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        QueryScorer queryScorer = new QueryScorer(new TermQuery(new Term("f", "just")), "f");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer, true), analyzer);
+
+        SplitFragment[] fragments = highlighter.getBestFragments("<123>456 Just", 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), "d1w3d1w3d1h4|<123>456 Just");
+
+        // stop words have no span
+        fragments = highlighter.getBestFragments("just the NGram", 1);
+        Assert.assertEquals(fragments[0].toString(), "h4d1p3d1w5|just the NGram");
+    }
+
+    @Test
+    public void testSpansSize() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        QueryScorer queryScorer = new QueryScorer(new TermQuery(new Term("f", "just")), "f");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer, true), analyzer);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("nomad job ");
+        }
+        SplitFragment[] fragments = highlighter.getBestFragments(text.toString(), 1);
+        CharSequence header = fragments[0].spanHeader();
+        // the header does not grow with the offsets, short tokens taking two chars a span
+        Assert.assertTrue(fragments[0].spanCount() >= 2000);
+        Assert.assertEquals(header.length(), 2 * fragments[0].spanCount() + 1);
+        Assert.assertTrue(header.length() < text.length());
+    }
+
+    @Test
+    public void testUTF8Texts() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        QueryScorer queryScorer = new QueryScorer(new TermQuery(new Term("f", "just")), "f");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer), analyzer);
+
+        List<SplitFragment> fragments = new ArrayList<SplitFragment>();
+        fragments.addAll(Arrays.asList(highlighter.getBestFragments("刘德华 just", 1)));
+        fragments.addAll(Arrays.asList(highlighter.getBestFragments("\ud801\udc00 just é", 1)));
+        Text[] texts = FragmentTexts.toTexts(fragments, 2);
+        Assert.assertEquals(texts.length, 2);
+        Assert.assertTrue(texts[0].hasBytes());
+        Assert.assertEquals(texts[0].string(), fragments.get(0).toString());
+        Assert.assertEquals(texts[1].string(), fragments.get(1).toString());
+        // the texts share an array of the exact length
+        Assert.assertEquals(texts[0].bytes().array().length, texts[0].bytes().length() + texts[1].bytes().length());
+        Assert.assertEquals(FragmentTexts.utf8Length(fragments.get(1).toString()), fragments.get(1).toString().getBytes("UTF-8").length);
+    }
+
+    @Test
+    public void testPrefilteredWindows() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        HighlightQuery query = new HighlightQuery(new TermQuery(new Term("f", "ngram")), "f");
+        QueryScorer queryScorer = new QueryScorer(query.weightedSpanTerms());
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer), analyzer);
+
+        OffsetMatches candidates = new OffsetMatches();
+        query.prefilter().match("dong ai hua just the NGram", candidates);
+        Assert.assertEquals(candidates.size(), 1);
+        Assert.assertEquals(candidates.start(0), 21);
+
+        SplitFragment[] fragments = highlighter.getBestFragments("dong ai hua just the NGram", candidates, 5, 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), " the <em>NGram</em>");
+
+        // the same windows replayed from the stored tokens
+        BytesRef encoded = SplitTokens.scan("dong ai hua just the NGram", analyzer.getMaxTokenLength()).encode();
+        SplitTokens tokens = SplitTokens.decode(encoded.bytes, encoded.offset, encoded.length);
+        fragments = highlighter.getBestFragments("dong ai hua just the NGram", tokens, candidates, 5, 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), " the <em>NGram</em>");
+
+        candidates.clear();
+        query.prefilter().match("abc def", candidates);
+        fragments = highlighter.getBestFragments("abc def", candidates, 3, 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), "<i>abc</i>");
+    }
+
+    @Test
+    public void testMemoizedLeadingText() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        SplitMarkupCache memo = new SplitMarkupCache(ImmutableSettings.settingsBuilder().put("split_highlight.markup_cache.size", "1mb").build(),
+                new InternalIndicesLifecycle(ImmutableSettings.EMPTY));
+        HighlightQuery query = new HighlightQuery(new TermQuery(new Term("f", "ngram")), "f");
+        SplitMarkup markup = new SplitMarkup("<em>", "</em>", analyzer);
+        markup.setMemo(memo, "index");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(new QueryScorer(query.weightedSpanTerms()), new NullFragmenter(), markup, analyzer);
+
+        OffsetMatches candidates = new OffsetMatches();
+        query.prefilter().match("abc def", candidates);
+        Assert.assertEquals(highlighter.getBestFragments("abc def", candidates, 0, 1)[0].toString(), "<i>abc</i> <i>def</i>");
+        Assert.assertEquals(highlighter.getBestFragments("abc def", candidates, 0, 1)[0].toString(), "<i>abc</i> <i>def</i>");
+        Assert.assertEquals(memo.stats("index").misses(), 1);
+        Assert.assertEquals(memo.stats("index").hits(), 1);
+    }
+
+    @Test
+    public void testAutomatonMarkup() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        HighlightQuery query = new HighlightQuery(new PrefixQuery(new Term("f", "xsflsy")), "f");
+        Assert.assertNull(query.terms());
+        Assert.assertNotNull(query.automata());
+
+        AutomatonScorer scorer = new AutomatonScorer(query.automata());
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(scorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer), analyzer);
+        SplitFragment[] fragments = highlighter.getBestFragments("xsflsy02.sa.nhnsystem.com", 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].toString(), "<em>xsflsy02</em>.<i>sa.nhnsystem.com</i>");
+    }
+
+    @Test
+    public void testTermSetScorer() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        BooleanQuery booleanQuery = new BooleanQuery();
+        booleanQuery.add(new TermQuery(new Term("f", "job")), BooleanClause.Occur.SHOULD);
+        booleanQuery.add(new TermQuery(new Term("f", "answer")), BooleanClause.Occur.SHOULD);
+        HighlightQuery query = new HighlightQuery(booleanQuery, "f");
+
+        TermSetScorer scorer = new TermSetScorer(query.termSet());
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(scorer, new NullFragmenter(), new SplitMarkup("<em>", "</em>", analyzer), analyzer);
+        SplitFragment[] fragments = highlighter.getBestFragments("nomad one two job job answer", 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertEquals(fragments[0].getScore(), 3f);
+        Assert.assertTrue(fragments[0].toString().contains("<em>job</em> <em>job</em> <em>answer</em>"));
+    }
+
+    @Test
+    public void testPhraseMarkup() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        PhraseQuery phraseQuery = new PhraseQuery();
+        phraseQuery.add(new Term("f", "job"));
+        phraseQuery.add(new Term("f", "returnanswer"));
+        HighlightQuery query = new HighlightQuery(phraseQuery, "f");
+        Assert.assertNotNull(query.phrases());
+
+        SplitMarkup markup = new SplitMarkup("<em>", "</em>", analyzer);
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(new PhraseScorer(query.phrases()), new NullFragmenter(), markup, analyzer);
+        SplitFragment[] fragments = highlighter.getBestFragments("nomad::Job::ReturnAnswer:163", 1);
+        Assert.assertEquals(fragments[0].toString(), "<i>nomad</i>::<em>Job</em>::<em>ReturnAnswer</em>:<i>163</i>");
+
+        // delimiters do not take positions, the words do
+        fragments = highlighter.getBestFragments("ReturnAnswer job::nomad::returnanswer", 1);
+        Assert.assertEquals(fragments[0].toString(), "<i>ReturnAnswer</i> <i>job</i>::<i>nomad</i>::<i>returnanswer</i>");
+    }
+
+    @Test
+    public void testStreamedPhrase() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        PhraseQuery phraseQuery = new PhraseQuery();
+        phraseQuery.add(new Term("f", "job"));
+        phraseQuery.add(new Term("f", "returnanswer"));
+        HighlightQuery query = new HighlightQuery(phraseQuery, "f");
+        SplitMarkup markup = new SplitMarkup("<em>", "</em>", analyzer);
+
+        // a phrase far past the tokens the scorer keeps read ahead
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append("nomad ");
+        }
+        text.append("job returnanswer");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(new PhraseScorer(query.phrases()), new NullFragmenter(), markup, analyzer);
+        SplitFragment[] fragments = highlighter.getBestFragments(text.toString(), 1);
+        Assert.assertTrue(fragments[0].toString().endsWith("<em>job</em> <em>returnanswer</em>"));
+
+        // the analysis stops once the char budget is spent
+        text.setLength(0);
+        text.append("job returnanswer");
+        for (int i = 0; i < 1000; i++) {
+            text.append(" nomad job returnanswer");
+        }
+        highlighter = new SplitFragmentHighlighter(new PhraseScorer(query.phrases()), new SimpleFragmenter(20), markup, analyzer);
+        highlighter.setMaxAnalyzedChars(100);
+        fragments = highlighter.getBestFragments(text.toString(), 1);
+        Assert.assertEquals(fragments.length, 1);
+        Assert.assertTrue(fragments[0].toString().contains("<em>job</em> <em>returnanswer</em>"));
+        Assert.assertTrue(fragments[0].getTextEndPos() <= 200);
+    }
+
+    @Test
+    public void testMaxAnalyzedChars() throws IOException {
+        SplitAnalyzer analyzer = new SplitAnalyzer(Lucene.ANALYZER_VERSION);
+        QueryScorer queryScorer = new QueryScorer(new TermQuery(new Term("f", "job")), "f");
+        SplitFragmentHighlighter highlighter = new SplitFragmentHighlighter(queryScorer, new SimpleFragmenter(20), new SplitMarkup("<em>", "</em>", analyzer), analyzer);
+        highlighter.setMaxAnalyzedChars(50);
+        StringBuilder text = new StringBuilder("nomad job");
+        for (int i = 0; i < 10000; i++) {
+            text.append(" returnanswer");
+        }
+        // fewer matches than fragments asked for, the analysis still stops at the limit
+        SplitFragment[] fragments = highlighter.getBestFragments(text.toString(), 3);
+        Assert.assertEquals(fragments.length, 3);
+        Assert.assertTrue(fragments[0].toString().contains("<em>job</em>"));
+        for (SplitFragment fragment : fragments) {
+            // the token crossing the limit is the last one
+            Assert.assertTrue(fragment.getTextEndPos() <= 50 + " returnanswer".length());
+        }
+    }
+}